@@ -0,0 +1,265 @@
+package com.ngisystems;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A queue that returns {@code Prioritizable} elements in order of their priority, from highest to lowest,
+ * and stores them either in a {@link HeapPriorityQueue} or in a {@link BucketsPriorityQueue} depending on
+ * which one is cheaper for the priorities it sees. The minimum priority is 1 and there is no maximum.
+ *
+ * <p>Every {@value #SAMPLE_INTERVAL} insertions the queue compares the estimated cost of an operation in both
+ * representations, given its size n and the highest priority p among the queued and recently added elements:
+ * <ul>
+ * <li>heap: {@code log2(n + 1)} comparisons
+ * <li>buckets: {@code 1 + (p / 64) / max(1, n / p)}, one insertion plus a scan of the occupied buckets bitmap
+ * every time a bucket empties, shared by the elements of that bucket
+ * </ul>
+ * It switches to buckets when their cost is at most half the heap cost and p is at most {@value #MAX_BUCKETS},
+ * and back to the heap when the heap cost is at most half the bucket cost. The factor of two keeps the queue from
+ * migrating back and forth around the break even point. Migrating runs in O(n) in both directions.
+ *
+ * <p>An insertion above the maximum priority of the buckets also triggers an evaluation, either growing the buckets
+ * to the next power of two or moving to the heap.
+ *
+ * <p>Operations on this class make no guarantees about the ordering of elements with equal priority.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class AdaptivePriorityQueue<E extends Prioritizable> implements PrioritizedQueue<E> {
+
+    static final int SAMPLE_INTERVAL = 1024;
+    static final int MAX_BUCKETS = 1 << 16;
+    private static final int SWITCH_FACTOR = 2;
+
+    /**
+     * Heap element that orders by the priority the element had when it was added.
+     */
+    private static class Entry<E extends Prioritizable> implements Comparable<Entry<E>> {
+        final E element;
+        final int priority;
+
+        Entry(E element, int priority) {
+            this.element = element;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Entry<E> o) {
+            return Integer.compare(priority, o.priority);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return element.equals(((Entry) o).element);
+        }
+
+        @Override
+        public int hashCode() {
+            return element.hashCode();
+        }
+    }
+
+    private HeapPriorityQueue<Entry<E>> heap;
+    private BucketsPriorityQueue<E> buckets;
+    private int sampled;
+    private int sampledMax;
+
+    public AdaptivePriorityQueue() {
+        heap = new HeapPriorityQueue<>();
+    }
+
+    /**
+     * Adds the element to the queue.
+     *
+     * <p>This operation runs in amortized O(log n) in heap mode and amortized constant time in buckets mode,
+     * with an O(n) migration at most once every {@value #SAMPLE_INTERVAL} insertions.
+     *
+     * @param element the element to add to the queue
+     * @throws IllegalStateException if the priority of the element is less than 1
+     */
+    public synchronized void add(E element) throws IllegalStateException {
+        int priority = element.getPriority();
+        if (priority < 1) {
+            throw new IllegalStateException("Priority must be at least 1");
+        }
+
+        fit(priority);
+        if (buckets != null) {
+            buckets.add(element);
+        } else {
+            heap.add(new Entry<>(element, priority));
+        }
+        sampledMax = Math.max(sampledMax, priority);
+        if (++sampled == SAMPLE_INTERVAL) {
+            adapt(0);
+        }
+    }
+
+    public synchronized E poll() {
+        if (buckets != null) {
+            return buckets.poll();
+        }
+        Entry<E> entry = heap.poll();
+        return entry == null ? null : entry.element;
+    }
+
+    public synchronized E peek() {
+        if (buckets != null) {
+            return buckets.peek();
+        }
+        Entry<E> entry = heap.peek();
+        return entry == null ? null : entry.element;
+    }
+
+    /**
+     * Updates the priority of the element that is found first in the queue.
+     *
+     * <p>The element is searched in O(n) in heap mode and in O(n) of its priority in buckets mode.
+     *
+     * @param element the element to update
+     * @param newPriority the new priority
+     * @throws NoSuchElementException if the element is not found in the queue
+     * @throws IllegalStateException if the new priority is less than 1
+     */
+    public synchronized void update(E element, int newPriority)
+            throws NoSuchElementException, IllegalStateException {
+        if (newPriority < 1) {
+            throw new IllegalStateException("Priority must be at least 1");
+        }
+
+        fit(newPriority);
+        if (buckets != null) {
+            buckets.update(element, newPriority);
+        } else {
+            heap.update(new Entry<>(element, element.getPriority()), new Entry<>(element, newPriority));
+            element.setPriority(newPriority);
+        }
+    }
+
+    public synchronized int size() {
+        return buckets != null ? buckets.size() : heap.size();
+    }
+
+    /**
+     * Removes up to {@code maxElements} elements from the head of this queue while holding the lock once.
+     *
+     * @see PrioritizedQueue#drainTo(Collection, int)
+     */
+    public synchronized int drainTo(Collection<? super E> sink, int maxElements) {
+        return PrioritizedQueue.super.drainTo(sink, maxElements);
+    }
+
+    /**
+     * Returns an iterator over the elements in this queue. The
+     * iterator does not return the elements in any particular order.
+     *
+     * <p>The iterator uses a copy of the current queue, see {@link HeapPriorityQueue#iterator()}
+     * and {@link BucketsPriorityQueue#iterator()}.
+     *
+     * @return an iterator over the elements in this queue
+     */
+    public synchronized Iterator<E> iterator() {
+        if (buckets != null) {
+            return buckets.iterator();
+        }
+        Iterator<Entry<E>> entries = heap.iterator();
+        return new Iterator<E>() {
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            public E next() {
+                return entries.next().element;
+            }
+        };
+    }
+
+    /**
+     * Returns the number of element slots allocated by the current representation.
+     */
+    synchronized int capacity() {
+        return buckets != null ? buckets.capacity() : heap.capacity();
+    }
+
+    /**
+     * Returns true if the elements are currently stored in buckets.
+     */
+    synchronized boolean usesBuckets() {
+        return buckets != null;
+    }
+
+    /**
+     * Makes sure the current representation can hold the priority before it is inserted.
+     */
+    private void fit(int priority) {
+        if (buckets != null && priority > buckets.getMaxPriority()) {
+            adapt(priority);
+        }
+    }
+
+    /**
+     * Picks the cheaper representation for the queued elements and the sampled priorities and migrates to it.
+     *
+     * @param required a priority the representation must be able to hold, 0 if none
+     */
+    private void adapt(int required) {
+        int size = size();
+        int maxPriority = Math.max(Math.max(required, sampledMax), maxQueuedPriority());
+        sampled = 0;
+        sampledMax = 0;
+
+        double heapCost = log2(size + 1);
+        double bucketCost = 1 + (maxPriority / 64.0) / Math.max(1.0, (double) size / maxPriority);
+        boolean fitsBuckets = maxPriority <= MAX_BUCKETS;
+
+        if (buckets == null) {
+            if (fitsBuckets && bucketCost * SWITCH_FACTOR <= heapCost) {
+                toBuckets(maxPriority);
+            }
+        } else if (!fitsBuckets || heapCost * SWITCH_FACTOR <= bucketCost) {
+            toHeap();
+        } else if (required > buckets.getMaxPriority()) {
+            toBuckets(maxPriority);
+        }
+    }
+
+    private int maxQueuedPriority() {
+        if (buckets != null) {
+            E top = buckets.peek();
+            return top == null ? 0 : top.getPriority();
+        }
+        Entry<E> top = heap.peek();
+        return top == null ? 0 : top.priority;
+    }
+
+    private void toBuckets(int maxPriority) {
+        int capacity = Integer.highestOneBit(Math.max(maxPriority - 1, 1)) << 1;
+        BucketsPriorityQueue<E> target = new BucketsPriorityQueue<>(Math.min(capacity, MAX_BUCKETS));
+        for (Iterator<E> it = iterator(); it.hasNext(); ) {
+            target.add(it.next());
+        }
+        heap = null;
+        buckets = target;
+    }
+
+    private void toHeap() {
+        HeapPriorityQueue<Entry<E>> target = new HeapPriorityQueue<>();
+        target.ensureCapacity(buckets.size());
+        //the buckets iterator returns the elements from highest to lowest priority, which is already a valid heap
+        //so every insertion stops right away
+        for (Iterator<E> it = buckets.iterator(); it.hasNext(); ) {
+            E element = it.next();
+            target.add(new Entry<>(element, element.getPriority()));
+        }
+        buckets = null;
+        heap = target;
+    }
+
+    private static double log2(int n) {
+        return Math.log(n) / Math.log(2);
+    }
+}
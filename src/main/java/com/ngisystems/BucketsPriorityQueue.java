@@ -1,8 +1,17 @@
 package com.ngisystems;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 /**
  *  A queue that returns elements in order of their priority, from highest to lowest.
@@ -12,22 +21,43 @@ import java.util.NoSuchElementException;
  *  <p>This is best suited for a small nu</p>
  *
  *  <p>Operations on this class make no guarantees about the ordering of elements with equal priority.
+ *
+ *  <p>By default {@link #poll()} always returns an element of the highest priority, which can starve the lower
+ *  priorities under sustained load. {@link #setWeights(int[])} switches the queue to weighted round-robin polling
+ *  where every priority gets a share of the polls proportional to its weight.
+ *
+ *  <p>A queue constructed with a capacity sheds load once it is full: an element with a higher priority than the
+ *  lowest queued one evicts an element of that lowest priority, any other element is rejected.
+ *
+ *  <p>{@link #ageAll(int)} raises the priority of every queued element at once without touching the elements.
+ *  The priority reported by an aged element is brought up to date when it is polled, peeked, iterated or updated.
+ *
+ *  <p>Consumers that serve a band of priorities can use {@link #poll(int, int)}, {@link #drainRange},
+ *  {@link #countRange(int, int)} and {@link #iterator(int, int)}, which only visit the occupied buckets of the band.
  */
-public class BucketsPriorityQueue<E extends Prioritizable> {
+public class BucketsPriorityQueue<E extends Prioritizable> implements PrioritizedQueue<E> {
 
     private static final int BUCKET_INITIAL_CAPACITY = 5;
+    private static final Prioritizable[] EMPTY_BUCKET = {};
 
+    /**
+     * A stack of elements with the same priority.
+     * The backing array is allocated on the first insertion and is halved once a quarter or less of it is in use,
+     * but never below the initial capacity while the bucket holds elements.
+     */
     private static class Bucket<E> {
+        final int initialCapacity;
         E[] elements;
         int size;
 
-        public Bucket() {
-            elements = (E[]) new Prioritizable[BUCKET_INITIAL_CAPACITY];
+        public Bucket(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            elements = (E[]) EMPTY_BUCKET;
         }
 
         void add(E element) {
-            if (size >= elements.length - 1) {
-                elements = Arrays.copyOf(elements, elements.length * 2);
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, Math.max(elements.length * 2, initialCapacity));
             }
             elements[size++] = element;
         }
@@ -36,6 +66,7 @@ public class BucketsPriorityQueue<E extends Prioritizable> {
             if(size == 0) return null;
             E e = elements[size - 1];
             elements[--size] = null;
+            shrinkIfSparse();
             return e;
         }
 
@@ -43,13 +74,67 @@ public class BucketsPriorityQueue<E extends Prioritizable> {
             if(size == 0) return null;
             return elements[size - 1];
         }
+
+        /**
+         * Moves all the elements of this bucket on top of the target bucket.
+         * The array is handed over as is when the target is empty.
+         */
+        void moveTo(Bucket<E> target) {
+            if (size == 0) return;
+            if (target.size == 0) {
+                target.elements = elements;
+                target.size = size;
+            } else {
+                if (target.size + size > target.elements.length) {
+                    target.elements = Arrays.copyOf(target.elements, target.size + size);
+                }
+                System.arraycopy(elements, 0, target.elements, target.size, size);
+                target.size += size;
+            }
+            elements = (E[]) EMPTY_BUCKET;
+            size = 0;
+        }
+
+        void remove(int index) {
+            System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+            elements[--size] = null;
+            shrinkIfSparse();
+        }
+
+        void trimToSize() {
+            if (size == 0) {
+                elements = (E[]) EMPTY_BUCKET;
+            } else if (size < elements.length) {
+                elements = Arrays.copyOf(elements, size);
+            }
+        }
+
+        private void shrinkIfSparse() {
+            if (elements.length > initialCapacity && size <= elements.length / 4) {
+                elements = Arrays.copyOf(elements, Math.max(elements.length / 2, initialCapacity));
+            }
+        }
     }
 
     private Bucket<E>[] buckets;
+    private final BitSet occupied;
     private final int maxPriority;
+    private final int capacity;
+    private final Consumer<? super E> shedHandler;
     private int top;
+    private int bottom;
     private int count;
 
+    private int[] weights;
+    private int cursor;
+    private int credit;
+
+    /**
+     * Total aging applied since the queue was last empty, capped at maxPriority.
+     * Bounds how far above its reported priority an element may be stored.
+     */
+    private int aged;
+
     /**
      * Constructs a priority queue that will hold {@code Prioritizable} elements with the maximum specified priority.
      *
@@ -57,12 +142,53 @@ public class BucketsPriorityQueue<E extends Prioritizable> {
      * @param maxPriority the maximum priority of elements allowed in the queue
      */
     public BucketsPriorityQueue(int maxPriority) {
+        this(maxPriority, BUCKET_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs a priority queue that will hold {@code Prioritizable} elements with the maximum specified priority,
+     * sizing each bucket for {@code bucketCapacity} elements.
+     *
+     * <p>Buckets allocate their storage on the first insertion, so priorities that are never used cost no more
+     * than an empty bucket. This runs in O(maxPriority) time because it needs to initialize all the buckets.</p>
+     * @param maxPriority the maximum priority of elements allowed in the queue
+     * @param bucketCapacity the expected number of elements per priority
+     * @throws IllegalArgumentException if {@code bucketCapacity} is less than 1
+     */
+    public BucketsPriorityQueue(int maxPriority, int bucketCapacity) {
+        this(maxPriority, bucketCapacity, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Constructs a priority queue that holds at most {@code capacity} elements.
+     *
+     * <p>When the queue is full an element with a higher priority than the lowest queued priority evicts an element
+     * of that priority, which is passed to {@code shedHandler}. Elements at or below the lowest queued priority
+     * are rejected. This runs in O(maxPriority) time because it needs to initialize all the buckets.</p>
+     * @param maxPriority the maximum priority of elements allowed in the queue
+     * @param bucketCapacity the expected number of elements per priority
+     * @param capacity the maximum number of elements in the queue
+     * @param shedHandler receives the evicted elements, outside of the queue lock. May be null
+     * @throws IllegalArgumentException if {@code bucketCapacity} or {@code capacity} is less than 1
+     */
+    public BucketsPriorityQueue(int maxPriority, int bucketCapacity, int capacity, Consumer<? super E> shedHandler) {
+        if (bucketCapacity < 1) {
+            throw new IllegalArgumentException("Bucket capacity must be at least 1");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
         buckets = new Bucket[maxPriority];
         for(int i = 0; i < buckets.length; i++) {
-            buckets[i] = new Bucket();
+            buckets[i] = new Bucket(bucketCapacity);
         }
+        this.occupied = new BitSet(maxPriority);
         this.maxPriority = maxPriority;
+        this.capacity = capacity;
+        this.shedHandler = shedHandler;
         this.top = - 1;
+        this.bottom = -1;
+        this.cursor = -1;
     }
 
     /**
@@ -73,45 +199,212 @@ public class BucketsPriorityQueue<E extends Prioritizable> {
      *
      * @param element the element to add to the queue
      * @throws IllegalStateException if the priority of the element is greater than the maximum queue priority
+     * or if the queue is full and the element is rejected, see {@link #offer(Prioritizable)}
      */
-    public synchronized void add(E element) throws IllegalStateException {
-        if(element.getPriority() > maxPriority || element.getPriority() < 1) {
-            throw new IllegalStateException("Priority must be between 1 and " + maxPriority);
+    public void add(E element) throws IllegalStateException {
+        if (!offer(element)) {
+            throw new IllegalStateException("Queue is full");
         }
+    }
 
-        int index = element.getPriority() - 1;
-        buckets[index].add(element);
-        count++;
-        top = top < index ? index : top;
+    /**
+     * Adds the element to the queue unless it is full and the element has no higher priority than the lowest
+     * queued element.
+     *
+     * <p>If the queue is full and the element has a higher priority, an element of the lowest queued priority is
+     * evicted and passed to the shed handler after the queue lock is released. This operation runs in amortized
+     * constant time, plus O(maxPriority / 64) to find the new lowest priority when its bucket empties.
+     *
+     * @param element the element to add to the queue
+     * @return true if the element was added, false if it was rejected
+     * @throws IllegalStateException if the priority of the element is greater than the maximum queue priority
+     */
+    public boolean offer(E element) throws IllegalStateException {
+        E shed;
+        synchronized (this) {
+            if(element.getPriority() > maxPriority || element.getPriority() < 1) {
+                throw new IllegalStateException("Priority must be between 1 and " + maxPriority);
+            }
+
+            int index = element.getPriority() - 1;
+            if (count < capacity) {
+                put(index, element);
+                return true;
+            }
+            if (index <= bottom) {
+                return false;
+            }
+            shed = take(bottom);
+            put(index, element);
+        }
+
+        if (shedHandler != null) {
+            shedHandler.accept(shed);
+        }
+        return true;
     }
 
     /**
      * Retrieves and removes the top priority element from the queue.
+     * In weighted mode the element is taken from the priority whose turn it is, see {@link #setWeights(int[])}.
      *
-     * <p>This operation runs in O(maxPriority) in the worst case
-     * because it needs to update the reference to the top element.
+     * <p>This operation runs in O(maxPriority / 64) in the worst case
+     * because it needs to find the next non-empty bucket.
      *
      * @return the top priority element or null if the queue is empty
      */
     public synchronized E poll() {
-        E result = top >= 0 ? buckets[top].take() : null;
-        count--;
-        while (top >= 0 && buckets[top].size == 0) {
-            top--;
-        }
+        if (top < 0) return null;
+        if (weights == null) return take(top);
 
+        if (nextIndex() != cursor) {
+            //start a new round from the highest priority
+            cursor = top;
+            credit = weights[cursor];
+        }
+        int index = cursor;
+        E result = take(index);
+        if (--credit == 0 || buckets[index].size == 0) {
+            cursor = occupied.previousSetBit(index - 1);
+            if (cursor < 0) {
+                cursor = top;
+            }
+            credit = cursor >= 0 ? weights[cursor] : 0;
+        }
         return result;
     }
 
     /**
-     * Retrieves the top priority element from the queue.
+     * Retrieves the element that {@link #poll()} would return without removing it.
      *
      * <p>This operation runs in O(1)
      *
      * @return the top priority element or null if the queue is empty
      */
     public synchronized E peek() {
-        return top >= 0 ? buckets[top].peek() : null;
+        if (top < 0) return null;
+        int index = nextIndex();
+        return reconcile(buckets[index].peek(), index);
+    }
+
+    /**
+     * Returns the number of elements in this queue.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Removes up to {@code maxElements} elements from the head of this queue while holding the lock once.
+     *
+     * @see PrioritizedQueue#drainTo(Collection, int)
+     */
+    public synchronized int drainTo(Collection<? super E> sink, int maxElements) {
+        return PrioritizedQueue.super.drainTo(sink, maxElements);
+    }
+
+    /**
+     * Retrieves and removes an element of the highest priority between {@code minPriority} and {@code maxPriority},
+     * both inclusive. The band is clipped to the priorities allowed in the queue and weights do not apply.
+     *
+     * <p>This operation runs in O(b / 64) where b is the width of the band, because it needs to find the highest
+     * non-empty bucket in the band.
+     *
+     * @param minPriority the lowest priority to take
+     * @param maxPriority the highest priority to take
+     * @return the top priority element of the band or null if there is none
+     * @throws IllegalArgumentException if {@code minPriority} is greater than {@code maxPriority}
+     */
+    public synchronized E poll(int minPriority, int maxPriority) throws IllegalArgumentException {
+        int index = highestInBand(minPriority, maxPriority);
+        return index < 0 ? null : take(index);
+    }
+
+    /**
+     * Removes up to {@code maxElements} elements with a priority between {@code minPriority} and
+     * {@code maxPriority}, both inclusive, and adds them to the sink from highest to lowest priority.
+     * The band is clipped to the priorities allowed in the queue.
+     *
+     * <p>The occupied buckets of the band are visited directly, so this runs in O(b / 64 + k) where b is the width
+     * of the band and k the number of elements drained, while holding the lock once.
+     *
+     * @param minPriority the lowest priority to take
+     * @param maxPriority the highest priority to take
+     * @param sink the collection to add the elements to
+     * @param maxElements the maximum number of elements to remove
+     * @return the number of elements removed
+     * @throws IllegalArgumentException if {@code minPriority} is greater than {@code maxPriority}
+     */
+    public synchronized int drainRange(int minPriority, int maxPriority, Collection<? super E> sink,
+                                       int maxElements) throws IllegalArgumentException {
+        int lowest = Math.max(minPriority, 1) - 1;
+        int drained = 0;
+        for (int index = highestInBand(minPriority, maxPriority);
+             index >= lowest && drained < maxElements;
+             index = occupied.previousSetBit(index - 1)) {
+            while (drained < maxElements && buckets[index].size > 0) {
+                sink.add(take(index));
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Returns the number of elements with a priority between {@code minPriority} and {@code maxPriority},
+     * both inclusive. The band is clipped to the priorities allowed in the queue.
+     *
+     * <p>This operation runs in O(b / 64) where b is the width of the band, plus the number of occupied buckets in it.
+     *
+     * @param minPriority the lowest priority to count
+     * @param maxPriority the highest priority to count
+     * @return the number of elements in the band
+     * @throws IllegalArgumentException if {@code minPriority} is greater than {@code maxPriority}
+     */
+    public synchronized int countRange(int minPriority, int maxPriority) throws IllegalArgumentException {
+        int lowest = Math.max(minPriority, 1) - 1;
+        int result = 0;
+        for (int index = highestInBand(minPriority, maxPriority);
+             index >= lowest;
+             index = occupied.previousSetBit(index - 1)) {
+            result += buckets[index].size;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximum priority of elements allowed in the queue.
+     */
+    public int getMaxPriority() {
+        return maxPriority;
+    }
+
+    /**
+     * Switches polling to weighted round-robin across the non-empty priorities, or back to strict priority order.
+     *
+     * <p>Each round visits the non-empty priorities from highest to lowest and polls up to {@code weights[p - 1]}
+     * elements of priority {@code p} before moving on, skipping empty priorities. Every non-empty priority is therefore
+     * served at least once every {@code sum(weights)} polls. Polling stays O(1) amortized and the iterator still
+     * returns elements in strict priority order.
+     *
+     * @param weights the weight of every priority, indexed by priority - 1, or null for strict priority order
+     * @throws IllegalArgumentException if there is not exactly one weight per priority or a weight is less than 1
+     */
+    public synchronized void setWeights(int[] weights) throws IllegalArgumentException {
+        if (weights != null) {
+            if (weights.length != maxPriority) {
+                throw new IllegalArgumentException("Expected " + maxPriority + " weights but got " + weights.length);
+            }
+            for (int weight : weights) {
+                if (weight < 1) {
+                    throw new IllegalArgumentException("Weights must be at least 1");
+                }
+            }
+            weights = weights.clone();
+        }
+        this.weights = weights;
+        this.cursor = -1;
+        this.credit = 0;
     }
 
     /**
@@ -119,7 +412,9 @@ public class BucketsPriorityQueue<E extends Prioritizable> {
      * If more equal elements exist only the first one will be updated.
      *
      * <p>This algorithm performs a sequential search in the list of elements with the same priority so this is
-     * done in O(n) where n is the number of elements with the same priority.
+     * done in O(n) where n is the number of elements with the same priority. If the queue was aged since it was
+     * last empty, the element may have been moved up by up to the total aging, so the occupied buckets between its
+     * reported priority and that many priorities above are searched.
      *
      * The update of top and the insertion is done in constant time.
      *
@@ -128,36 +423,258 @@ public class BucketsPriorityQueue<E extends Prioritizable> {
      * @throws NoSuchElementException if the element is not found in the queue
      */
     public synchronized void update(E element, int newPriority) throws NoSuchElementException {
-        Bucket bucket = buckets[element.getPriority() - 1];
-        boolean removed = false;
-        for(int i = 0; i < bucket.size; i++) {
-            if(bucket.elements[i].equals(element)) {
-                //delete the element
-                for(int j = i; j < bucket.size - 1; j++) {
-                    bucket.elements[j] = bucket.elements[j + 1];
-                }
-                bucket.elements[--bucket.size] = null;
-                removed = true;
-                count--;
-
-                //update top if necessary
-                if(element.getPriority() - 1 == top && bucket.size == 0) {
-                    while (top >= 0 && buckets[top].size == 0) {
-                        top--;
+        int first = element.getPriority() - 1;
+        int last = Math.min(maxPriority - 1, first + aged);
+        for (int index = occupied.nextSetBit(Math.max(first, 0));
+             index >= 0 && index <= last;
+             index = occupied.nextSetBit(index + 1)) {
+            Bucket<E> bucket = buckets[index];
+            for(int i = 0; i < bucket.size; i++) {
+                if(bucket.elements[i].equals(element)) {
+                    bucket.remove(i);
+                    count--;
+                    if (bucket.size == 0) {
+                        emptied(index);
                     }
+
+                    element.setPriority(newPriority);
+                    add(element);
+                    return;
                 }
-                break;
             }
         }
+        throw new NoSuchElementException();
+    }
+
+    /**
+     * Raises the priority of every queued element by {@code delta}.
+     * Elements that would go above the maximum priority get the maximum priority.
+     *
+     * <p>The buckets are shifted up instead of updating each element, so this runs in O(maxPriority) plus the
+     * number of elements folded into the top bucket, with no work for the other elements. The priority reported by
+     * an element is updated lazily when it is polled, peeked, iterated or updated. Elements added afterwards are
+     * not aged.
+     *
+     * @param delta the amount to add to every priority
+     * @throws IllegalArgumentException if {@code delta} is negative
+     */
+    public synchronized void ageAll(int delta) throws IllegalArgumentException {
+        if (delta < 0) {
+            throw new IllegalArgumentException("Delta must not be negative");
+        }
+        int last = maxPriority - 1;
+        delta = Math.min(delta, last);
+        if (delta == 0 || count == 0) return;
+
+        //fold the buckets that age past the top into it, they become the new empty lowest buckets
+        for (int i = last - delta; i < last; i++) {
+            buckets[i].moveTo(buckets[last]);
+        }
+        Bucket<E>[] freed = Arrays.copyOfRange(buckets, last - delta, last);
+        System.arraycopy(buckets, 0, buckets, delta, last - delta);
+        System.arraycopy(freed, 0, buckets, 0, delta);
+
+        occupied.clear();
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i].size > 0) {
+                occupied.set(i);
+            }
+        }
+        top = occupied.previousSetBit(last);
+        bottom = occupied.nextSetBit(0);
+        cursor = -1;
+        aged = Math.min(aged + delta, maxPriority);
+    }
+
+    /**
+     * Returns the index of the highest occupied bucket in the band, or -1 if the band is empty.
+     */
+    private int highestInBand(int minPriority, int maxPriority) throws IllegalArgumentException {
+        if (minPriority > maxPriority) {
+            throw new IllegalArgumentException("Minimum priority " + minPriority
+                    + " is greater than maximum priority " + maxPriority);
+        }
+        if (maxPriority < 1 || minPriority > this.maxPriority) {
+            return -1;
+        }
+        int index = occupied.previousSetBit(Math.min(maxPriority, this.maxPriority) - 1);
+        return index >= Math.max(minPriority, 1) - 1 ? index : -1;
+    }
+
+    private void put(int index, E element) {
+        buckets[index].add(element);
+        occupied.set(index);
+        count++;
+        top = top < index ? index : top;
+        bottom = bottom < 0 || index < bottom ? index : bottom;
+    }
+
+    private E take(int index) {
+        E result = buckets[index].take();
+        count--;
+        if (buckets[index].size == 0) {
+            emptied(index);
+        }
+        return reconcile(result, index);
+    }
+
+    /**
+     * Brings the priority reported by an element up to date with the bucket it is stored in, after aging.
+     */
+    private E reconcile(E element, int index) {
+        if (element.getPriority() != index + 1) {
+            element.setPriority(index + 1);
+        }
+        return element;
+    }
+
+    private void emptied(int index) {
+        occupied.clear(index);
+        if (index == top) {
+            top = occupied.previousSetBit(index);
+        }
+        if (index == bottom) {
+            bottom = occupied.nextSetBit(index);
+        }
+        if (count == 0) {
+            aged = 0;
+        }
+    }
+
+    /**
+     * Returns the index of the bucket the next element will be polled from.
+     */
+    private int nextIndex() {
+        return cursor >= 0 && buckets[cursor].size > 0 ? cursor : top;
+    }
+
+    /**
+     * Releases the unused part of every bucket and drops the storage of empty buckets.
+     *
+     * <p>This runs in O(maxPriority + n) time because every non-empty bucket is copied to an array of its exact size.
+     */
+    public synchronized void trimToSize() {
+        for (Bucket<E> bucket : buckets) {
+            bucket.trimToSize();
+        }
+    }
 
-        if(removed) {
-            element.setPriority(newPriority);
-            add(element);
-        } else {
-            throw new NoSuchElementException();
+    /**
+     * Returns the total number of element slots allocated across all buckets.
+     */
+    synchronized int capacity() {
+        int capacity = 0;
+        for (Bucket<E> bucket : buckets) {
+            capacity += bucket.elements.length;
         }
+        return capacity;
+    }
+
+    /**
+     * Writes the queue to the stream in the binary snapshot format.
+     *
+     * <p>Only non-empty buckets are written, each as its priority, its size and its elements stored contiguously.
+     * The priority of an element is restored from the bucket it is read into, so the codec does not need to write it.
+     * The stream is flushed but not closed. This operation runs in O(maxPriority + n).
+     *
+     * @param out the stream to write to
+     * @param codec the codec used to write each element
+     * @throws IOException if writing to the stream fails
+     */
+    public synchronized void writeSnapshot(OutputStream out, ElementCodec<? super E> codec) throws IOException {
+        SnapshotFormat.write(out, SnapshotFormat.BUCKETS, data -> {
+            data.writeInt(maxPriority);
+            int nonEmpty = 0;
+            for (Bucket<E> bucket : buckets) {
+                if (bucket.size > 0) nonEmpty++;
+            }
+            data.writeInt(nonEmpty);
+            for (int i = 0; i < buckets.length; i++) {
+                Bucket<E> bucket = buckets[i];
+                if (bucket.size == 0) continue;
+                data.writeInt(i + 1);
+                data.writeInt(bucket.size);
+                for (int j = 0; j < bucket.size; j++) {
+                    codec.write(bucket.elements[j], data);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the queue to the channel, starting at its current position, in the binary snapshot format.
+     *
+     * @see #writeSnapshot(OutputStream, ElementCodec)
+     */
+    public void writeSnapshot(FileChannel channel, ElementCodec<? super E> codec) throws IOException {
+        writeSnapshot(Channels.newOutputStream(channel), codec);
+    }
+
+    /**
+     * Reads a queue written by {@link #writeSnapshot(OutputStream, ElementCodec)}.
+     *
+     * <p>Every bucket is allocated once with its exact size and filled in order.
+     *
+     * <p>The snapshot is read in chunks of known length through an internal buffer, so the stream does not need to
+     * be buffered. Exactly the bytes of the snapshot are read and the stream is not closed, so more data written
+     * after the snapshot can be read from it.
+     *
+     * @param in the stream to read from
+     * @param codec the codec used to read each element
+     * @return a new queue holding the elements of the snapshot
+     * @throws IOException if reading fails or the stream does not hold a buckets snapshot
+     */
+    public static <E extends Prioritizable> BucketsPriorityQueue<E> readSnapshot(InputStream in,
+                                                                                ElementCodec<? extends E> codec)
+            throws IOException {
+        return SnapshotFormat.read(in, SnapshotFormat.BUCKETS, data -> decodeSnapshot(data, codec));
     }
 
+    /**
+     * Reads a queue snapshot from the channel, starting at its current position, through a memory mapping.
+     * The channel is left positioned right after the snapshot.
+     *
+     * @see #readSnapshot(InputStream, ElementCodec)
+     */
+    public static <E extends Prioritizable> BucketsPriorityQueue<E> readSnapshot(FileChannel channel,
+                                                                                ElementCodec<? extends E> codec)
+            throws IOException {
+        return SnapshotFormat.readMapped(channel, SnapshotFormat.BUCKETS, data -> decodeSnapshot(data, codec));
+    }
+
+    private static <E extends Prioritizable> BucketsPriorityQueue<E> decodeSnapshot(DataInput in,
+                                                                                   ElementCodec<? extends E> codec)
+            throws IOException {
+        int maxPriority = in.readInt();
+        if (maxPriority < 1) {
+            throw new IOException("Corrupt snapshot, invalid maximum priority " + maxPriority);
+        }
+        BucketsPriorityQueue<E> result = new BucketsPriorityQueue<>(maxPriority);
+        int nonEmpty = in.readInt();
+        for (int b = 0; b < nonEmpty; b++) {
+            int priority = in.readInt();
+            int size = in.readInt();
+            if (priority < 1 || priority > maxPriority || size < 0) {
+                throw new IOException("Corrupt snapshot, invalid bucket " + priority + " of size " + size);
+            }
+            Bucket<E> bucket = result.buckets[priority - 1];
+            bucket.elements = Arrays.copyOf(bucket.elements, bucket.size + size);
+            for (int j = 0; j < size; j++) {
+                E element = codec.read(in);
+                if (element.getPriority() != priority) {
+                    element.setPriority(priority);
+                }
+                bucket.elements[bucket.size++] = element;
+            }
+            result.count += size;
+            if (size > 0) {
+                result.occupied.set(priority - 1);
+                result.top = Math.max(result.top, priority - 1);
+            }
+        }
+        result.bottom = result.occupied.nextSetBit(0);
+        return result;
+    }
 
     /**
      * Returns an iterator over the elements in this queue. The
@@ -171,13 +688,38 @@ public class BucketsPriorityQueue<E extends Prioritizable> {
      * <p>The iterator uses a copy of the current queue and this is constructed in O(n)
      * @return an iterator over the elements in this queue
      */
-    public synchronized Itr iterator() {
+    public synchronized Iterator<E> iterator() {
         int c = 0;
         E[] items = (E[]) new Prioritizable[count];
 
         for(int i = top; i >= 0; i--) {
             for(int j = 0; j < buckets[i].size; j++) {
-                items[c++] = buckets[i].elements[j];
+                items[c++] = reconcile(buckets[i].elements[j], i);
+            }
+        }
+        return new Itr(items);
+    }
+
+    /**
+     * Returns an iterator over the elements with a priority between {@code minPriority} and {@code maxPriority},
+     * both inclusive, in order of their priority. The band is clipped to the priorities allowed in the queue.
+     *
+     * <p>Like {@link #iterator()} the iterator uses a copy, but only of the occupied buckets of the band, so it is
+     * constructed in O(b / 64 + k) where b is the width of the band and k the number of elements in it.
+     *
+     * @param minPriority the lowest priority to return
+     * @param maxPriority the highest priority to return
+     * @return an iterator over the elements in the band
+     * @throws IllegalArgumentException if {@code minPriority} is greater than {@code maxPriority}
+     */
+    public synchronized Iterator<E> iterator(int minPriority, int maxPriority) throws IllegalArgumentException {
+        int c = 0;
+        E[] items = (E[]) new Prioritizable[countRange(minPriority, maxPriority)];
+
+        int lowest = Math.max(minPriority, 1) - 1;
+        for (int i = highestInBand(minPriority, maxPriority); i >= lowest; i = occupied.previousSetBit(i - 1)) {
+            for (int j = 0; j < buckets[i].size; j++) {
+                items[c++] = reconcile(buckets[i].elements[j], i);
             }
         }
         return new Itr(items);
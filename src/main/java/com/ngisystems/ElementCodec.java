@@ -0,0 +1,19 @@
+package com.ngisystems;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes and decodes the elements of a queue snapshot.
+ *
+ * <p>A codec must read back exactly the bytes it wrote for an element, since elements are stored back to back.
+ *
+ * @param <E> the type of elements handled by the codec
+ */
+public interface ElementCodec<E> {
+
+    void write(E element, DataOutput out) throws IOException;
+
+    E read(DataInput in) throws IOException;
+}
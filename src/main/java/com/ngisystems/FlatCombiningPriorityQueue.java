@@ -0,0 +1,191 @@
+package com.ngisystems;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A front end for a synchronized queue, such as {@link HeapPriorityQueue} or {@link BucketsPriorityQueue},
+ * that batches the operations of concurrent threads using flat combining.
+ *
+ * <p>Every thread publishes its operation in its own slot. Whichever thread acquires the combiner lock runs all
+ * the published operations against the queue while holding the queue monitor once, and the other threads wait for
+ * their result in their slot instead of competing for the monitor. Under contention this replaces a monitor
+ * handoff per operation with one per batch, and the queue data stays in the cache of the combining thread.
+ *
+ * <p>Slots that have not been used for {@value #CLEANUP_AGE} combining passes are unlinked and are linked again
+ * on their next use, so threads that stop using the queue do not slow down combining.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class FlatCombiningPriorityQueue<E> implements PrioritizedQueue<E> {
+
+    static final int CLEANUP_AGE = 1024;
+    private static final int CLEANUP_INTERVAL = 128;
+    private static final int MAX_PASSES = 3;
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private static final int NONE = 0;
+    private static final int ADD = 1;
+    private static final int POLL = 2;
+    private static final int PEEK = 3;
+
+    private static final class Slot {
+        /**
+         * The published operation, reset to NONE by the combiner once the result is written.
+         */
+        volatile int operation;
+        volatile boolean linked;
+        volatile Slot next;
+        Object argument;
+        Object result;
+        RuntimeException failure;
+        int lastUsed;
+    }
+
+    private final PrioritizedQueue<E> queue;
+    private final ThreadLocal<Slot> slots = ThreadLocal.withInitial(Slot::new);
+    private final AtomicReference<Slot> head = new AtomicReference<>();
+    private final AtomicBoolean combining = new AtomicBoolean();
+    private int pass;
+
+    /**
+     * @param queue the queue the operations are run against. Its methods must synchronize on the queue itself,
+     *              as the methods of {@link HeapPriorityQueue} and {@link BucketsPriorityQueue} do
+     */
+    public FlatCombiningPriorityQueue(PrioritizedQueue<E> queue) {
+        this.queue = queue;
+    }
+
+    public void add(E e) {
+        execute(ADD, e);
+    }
+
+    public E poll() {
+        return (E) execute(POLL, null);
+    }
+
+    public E peek() {
+        return (E) execute(PEEK, null);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public Iterator<E> iterator() {
+        return queue.iterator();
+    }
+
+    private Object execute(int operation, Object argument) {
+        Slot slot = slots.get();
+        slot.argument = argument;
+        slot.operation = operation;
+
+        int spins = 0;
+        while (true) {
+            if (!slot.linked) {
+                link(slot);
+            }
+            if (!combining.get() && combining.compareAndSet(false, true)) {
+                try {
+                    combine();
+                } finally {
+                    combining.set(false);
+                }
+            }
+            if (slot.operation == NONE) {
+                break;
+            }
+            if (++spins > SPINS_BEFORE_YIELD) {
+                Thread.yield();
+            }
+        }
+
+        Object result = slot.result;
+        RuntimeException failure = slot.failure;
+        slot.argument = null;
+        slot.result = null;
+        slot.failure = null;
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    private void link(Slot slot) {
+        slot.linked = true;
+        Slot first;
+        do {
+            first = head.get();
+            slot.next = first;
+        } while (!head.compareAndSet(first, slot));
+    }
+
+    /**
+     * Runs the published operations, called only by the thread holding the combiner lock.
+     */
+    private void combine() {
+        pass++;
+        synchronized (queue) {
+            for (int i = 0; i < MAX_PASSES; i++) {
+                boolean found = false;
+                for (Slot slot = head.get(); slot != null; slot = slot.next) {
+                    int operation = slot.operation;
+                    if (operation != NONE) {
+                        run(slot, operation);
+                        slot.lastUsed = pass;
+                        slot.operation = NONE;
+                        found = true;
+                    }
+                }
+                if (!found) break;
+            }
+        }
+        if (pass % CLEANUP_INTERVAL == 0) {
+            unlinkIdleSlots();
+        }
+    }
+
+    private void run(Slot slot, int operation) {
+        try {
+            switch (operation) {
+                case ADD:
+                    queue.add((E) slot.argument);
+                    break;
+                case POLL:
+                    slot.result = queue.poll();
+                    break;
+                case PEEK:
+                    slot.result = queue.peek();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        } catch (RuntimeException e) {
+            slot.failure = e;
+        }
+    }
+
+    /**
+     * Unlinks the slots that have not been used recently. The head is never unlinked because other threads
+     * may be linking new slots in front of it.
+     */
+    private void unlinkIdleSlots() {
+        Slot previous = head.get();
+        if (previous == null) return;
+        Slot slot = previous.next;
+        while (slot != null) {
+            //read before the slot can be linked again by its owner
+            Slot next = slot.next;
+            if (slot.operation == NONE && pass - slot.lastUsed > CLEANUP_AGE) {
+                previous.next = next;
+                //an owner that publishes in the meantime sees it is unlinked and links the slot again
+                slot.linked = false;
+            } else {
+                previous = slot;
+            }
+            slot = next;
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package com.ngisystems;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -10,14 +17,31 @@ import java.util.NoSuchElementException;
  *
  * @param <E> the type of elements held in the queue.(Must implement {@code Comparable<E>}
  */
-public class HeapPriorityQueue<E extends Comparable<E>> {
+public class HeapPriorityQueue<E extends Comparable<E>> implements PrioritizedQueue<E> {
 
     private static final int INITIAL_CAPACITY = 10;
+    private final int minCapacity;
     private E[] queue;
     private int size;
 
     public HeapPriorityQueue() {
-        queue = (E[]) new Comparable[INITIAL_CAPACITY];
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs a queue presized to hold {@code initialCapacity} elements without growing.
+     *
+     * <p>The queue never shrinks below this capacity when elements are removed.
+     *
+     * @param initialCapacity the number of elements the queue can hold before growing
+     * @throws IllegalArgumentException if {@code initialCapacity} is less than 1
+     */
+    public HeapPriorityQueue(int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("Initial capacity must be at least 1");
+        }
+        minCapacity = initialCapacity;
+        queue = (E[]) new Comparable[initialCapacity + 1];
         size = 0;
     }
 
@@ -40,7 +64,9 @@ public class HeapPriorityQueue<E extends Comparable<E>> {
     /**
      * Retrieves and removes the head of this queue, or returns null if this queue is empty.
      *
-     * <p>This operation runs in O(log n) because it needs to restore the heap property after the top element is removed
+     * <p>This operation runs in amortized O(log n) because it needs to restore the heap property after the top element
+     * is removed. Once a quarter or less of the underlying array is in use it is halved, so a drained queue gives its
+     * memory back without thrashing around a single size.
      *
      * @return the head of this queue, or null if this queue is empty
      */
@@ -50,6 +76,7 @@ public class HeapPriorityQueue<E extends Comparable<E>> {
         queue[1] = queue[size];
         queue[size--] = null;
         bubbleDown(1);
+        shrinkIfSparse();
         return result;
     }
 
@@ -66,6 +93,22 @@ public class HeapPriorityQueue<E extends Comparable<E>> {
         return queue[1];
     }
 
+    /**
+     * Returns the number of elements in this queue.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes up to {@code maxElements} elements from the head of this queue while holding the lock once.
+     *
+     * @see PrioritizedQueue#drainTo(Collection, int)
+     */
+    public synchronized int drainTo(Collection<? super E> sink, int maxElements) {
+        return PrioritizedQueue.super.drainTo(sink, maxElements);
+    }
+
     /**
      * Updates an existing element in the queue.
      * This method should be used to update the priority of the element.
@@ -84,6 +127,42 @@ public class HeapPriorityQueue<E extends Comparable<E>> {
         replaceAtIndex(index, newElement);          //O(log n)
     }
 
+    /**
+     * Trims the underlying array to the number of elements in the queue, but never below the initial capacity.
+     *
+     * <p>This operation runs in O(n) because the elements are copied to a new array.
+     */
+    public synchronized void trimToSize() {
+        int capacity = Math.max(size, minCapacity);
+        if (capacity < queue.length - 1) {
+            queue = Arrays.copyOf(queue, capacity + 1);
+        }
+    }
+
+    /**
+     * Returns the number of elements the queue can hold before the underlying array has to grow.
+     */
+    synchronized int capacity() {
+        return queue.length - 1;
+    }
+
+    /**
+     * Grows the underlying array to hold at least {@code capacity} elements without raising the minimum capacity,
+     * so unlike presizing through the constructor the queue can still shrink once it is drained.
+     */
+    synchronized void ensureCapacity(int capacity) {
+        if (capacity > queue.length - 1) {
+            queue = Arrays.copyOf(queue, capacity + 1);
+        }
+    }
+
+    private void shrinkIfSparse() {
+        int capacity = queue.length - 1;
+        if (capacity > minCapacity && size <= capacity / 4) {
+            queue = Arrays.copyOf(queue, Math.max(capacity / 2, minCapacity) + 1);
+        }
+    }
+
     private void replaceAtIndex(int index, E newElement) {
         queue[index] = newElement;
         if(index == 1 || queue[index].compareTo(queue[parentIndex(index)]) < 0) {
@@ -109,6 +188,84 @@ public class HeapPriorityQueue<E extends Comparable<E>> {
         return new Itr(Arrays.copyOf(queue, size + 1));
     }
 
+    /**
+     * Writes the queue to the stream in the binary snapshot format.
+     *
+     * <p>The heap array is written as is, so {@link #readSnapshot(InputStream, ElementCodec)} does not need to
+     * rebuild the heap. The stream is flushed but not closed. This operation runs in O(n).
+     *
+     * @param out the stream to write to
+     * @param codec the codec used to write each element
+     * @throws IOException if writing to the stream fails
+     */
+    public synchronized void writeSnapshot(OutputStream out, ElementCodec<? super E> codec) throws IOException {
+        SnapshotFormat.write(out, SnapshotFormat.HEAP, data -> {
+            data.writeInt(size);
+            for (int i = 1; i <= size; i++) {
+                codec.write(queue[i], data);
+            }
+        });
+    }
+
+    /**
+     * Writes the queue to the channel, starting at its current position, in the binary snapshot format.
+     *
+     * @see #writeSnapshot(OutputStream, ElementCodec)
+     */
+    public void writeSnapshot(FileChannel channel, ElementCodec<? super E> codec) throws IOException {
+        writeSnapshot(Channels.newOutputStream(channel), codec);
+    }
+
+    /**
+     * Reads a queue written by {@link #writeSnapshot(OutputStream, ElementCodec)}.
+     *
+     * <p>The elements are placed straight into the heap array, so this runs in O(n) instead of the O(n log n)
+     * needed to add them one by one.
+     *
+     * <p>The snapshot is read in chunks of known length through an internal buffer, so the stream does not need to
+     * be buffered. Exactly the bytes of the snapshot are read and the stream is not closed, so more data written
+     * after the snapshot can be read from it.
+     *
+     * @param in the stream to read from
+     * @param codec the codec used to read each element
+     * @return a new queue holding the elements of the snapshot
+     * @throws IOException if reading fails or the stream does not hold a heap snapshot
+     */
+    public static <E extends Comparable<E>> HeapPriorityQueue<E> readSnapshot(InputStream in,
+                                                                             ElementCodec<? extends E> codec)
+            throws IOException {
+        return SnapshotFormat.read(in, SnapshotFormat.HEAP, data -> decodeSnapshot(data, codec));
+    }
+
+    /**
+     * Reads a queue snapshot from the channel, starting at its current position, through a memory mapping.
+     * The channel is left positioned right after the snapshot.
+     *
+     * @see #readSnapshot(InputStream, ElementCodec)
+     */
+    public static <E extends Comparable<E>> HeapPriorityQueue<E> readSnapshot(FileChannel channel,
+                                                                             ElementCodec<? extends E> codec)
+            throws IOException {
+        return SnapshotFormat.readMapped(channel, SnapshotFormat.HEAP, data -> decodeSnapshot(data, codec));
+    }
+
+    private static <E extends Comparable<E>> HeapPriorityQueue<E> decodeSnapshot(DataInput in,
+                                                                                ElementCodec<? extends E> codec)
+            throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > Integer.MAX_VALUE - 1) {
+            throw new IOException("Corrupt snapshot, invalid size " + size);
+        }
+        //presize the array without raising the minimum capacity, so the queue can still shrink once drained
+        HeapPriorityQueue<E> result = new HeapPriorityQueue<>();
+        result.queue = (E[]) new Comparable[Math.max(size, INITIAL_CAPACITY) + 1];
+        for (int i = 1; i <= size; i++) {
+            result.queue[i] = codec.read(in);
+        }
+        result.size = size;
+        return result;
+    }
+
     private int getIndex(E elementToRemove) throws NoSuchElementException {
         for (int i = 1; i <= size; i++) { //linear time O(n)
             if (queue[i].equals(elementToRemove)) {
@@ -0,0 +1,225 @@
+package com.ngisystems;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A queue made of one {@link HeapPriorityQueue} per key that returns elements in order of their priority,
+ * from highest to lowest, across all keys.
+ *
+ * <p>The heads of the per key queues are kept in a tournament tree, so the global head is known without looking
+ * at every key. Finding it costs O(1) and removing it costs O(log k + log n) where k is the number of keys and
+ * n the number of elements of the winning key. A key whose queue becomes empty is removed from the tree.
+ *
+ * <p>Operations on this class make no guarantees about the ordering of elements with equal priority.
+ *
+ * @param <K> the type of keys
+ * @param <E> the type of elements held in the queue.(Must implement {@code Comparable<E>}
+ */
+public class KeyedPriorityQueue<K, E extends Comparable<E>> {
+
+    private static final int INITIAL_LEAVES = 8;
+    private static final int NO_LEAF = -1;
+
+    private static class SubQueue<K, E extends Comparable<E>> {
+        final K key;
+        final HeapPriorityQueue<E> queue = new HeapPriorityQueue<>();
+        final int leaf;
+
+        SubQueue(K key, int leaf) {
+            this.key = key;
+            this.leaf = leaf;
+        }
+    }
+
+    private final Map<K, SubQueue<K, E>> subQueues = new HashMap<>();
+    private final Deque<Integer> freeLeaves = new ArrayDeque<>();
+    private SubQueue<K, E>[] leaves;
+    /**
+     * Winner tree over the leaves: node 1 is the root, the children of node i are 2i and 2i + 1 and
+     * leaf j is node {@code leaves.length + j}. Every node holds the leaf index of the winner below it or NO_LEAF.
+     */
+    private int[] tree;
+    private int usedLeaves;
+    private int size;
+
+    public KeyedPriorityQueue() {
+        leaves = new SubQueue[INITIAL_LEAVES];
+        tree = new int[2 * INITIAL_LEAVES];
+        Arrays.fill(tree, NO_LEAF);
+    }
+
+    /**
+     * Inserts the element into the queue of the given key, creating that queue if necessary.
+     *
+     * <p>This operation runs in amortized O(log k + log n).
+     *
+     * @param key the key of the queue
+     * @param e the element to add
+     */
+    public synchronized void add(K key, E e) {
+        SubQueue<K, E> subQueue = subQueues.get(key);
+        if (subQueue == null) {
+            subQueue = new SubQueue<>(key, allocateLeaf());
+            subQueues.put(key, subQueue);
+            leaves[subQueue.leaf] = subQueue;
+        }
+
+        E head = subQueue.queue.peek();
+        subQueue.queue.add(e);
+        size++;
+        if (head != subQueue.queue.peek()) {
+            replay(subQueue.leaf);
+        }
+    }
+
+    /**
+     * Retrieves and removes the highest priority element across all keys, or returns null if the queue is empty.
+     *
+     * <p>This operation runs in O(log k + log n).
+     *
+     * @return the head of this queue, or null if this queue is empty
+     */
+    public synchronized E poll() {
+        int winner = tree[1];
+        return winner == NO_LEAF ? null : pollFrom(leaves[winner]);
+    }
+
+    /**
+     * Retrieves and removes the highest priority element of the given key.
+     *
+     * <p>This operation runs in O(log k + log n).
+     *
+     * @param key the key of the queue
+     * @return the head of the key's queue, or null if the key has no elements
+     */
+    public synchronized E poll(K key) {
+        SubQueue<K, E> subQueue = subQueues.get(key);
+        return subQueue == null ? null : pollFrom(subQueue);
+    }
+
+    /**
+     * Retrieves the highest priority element across all keys, or returns null if the queue is empty.
+     *
+     * <p>This operation runs in O(1) because the winner of the tournament tree is at its root.
+     *
+     * @return the head of this queue, or null if this queue is empty
+     */
+    public synchronized E peek() {
+        int winner = tree[1];
+        return winner == NO_LEAF ? null : leaves[winner].queue.peek();
+    }
+
+    /**
+     * Retrieves the highest priority element of the given key.
+     *
+     * @param key the key of the queue
+     * @return the head of the key's queue, or null if the key has no elements
+     */
+    public synchronized E peek(K key) {
+        SubQueue<K, E> subQueue = subQueues.get(key);
+        return subQueue == null ? null : subQueue.queue.peek();
+    }
+
+    /**
+     * Updates an existing element in the queue of the given key.
+     *
+     * <p>The element is searched in O(n) and replaced in O(log n), the tournament tree is then replayed
+     * in O(log k).
+     *
+     * @param key the key of the queue
+     * @param existingElement the original element from the queue
+     * @param newElement the updated element to be added
+     * @throws NoSuchElementException if the {@code existingElement} is not found in the queue of the key
+     */
+    public synchronized void update(K key, E existingElement, E newElement) throws NoSuchElementException {
+        SubQueue<K, E> subQueue = subQueues.get(key);
+        if (subQueue == null) {
+            throw new NoSuchElementException();
+        }
+
+        subQueue.queue.update(existingElement, newElement);
+        //the head may be the same element with a priority changed in place, so always replay
+        replay(subQueue.leaf);
+    }
+
+    /**
+     * Returns the number of elements across all keys.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of elements of the given key.
+     */
+    public synchronized int size(K key) {
+        SubQueue<K, E> subQueue = subQueues.get(key);
+        return subQueue == null ? 0 : subQueue.queue.size();
+    }
+
+    /**
+     * Returns the number of keys that have at least one element.
+     */
+    public synchronized int keyCount() {
+        return subQueues.size();
+    }
+
+    private E pollFrom(SubQueue<K, E> subQueue) {
+        E result = subQueue.queue.poll();
+        size--;
+        if (subQueue.queue.size() == 0) {
+            subQueues.remove(subQueue.key);
+            leaves[subQueue.leaf] = null;
+            freeLeaves.push(subQueue.leaf);
+        }
+        replay(subQueue.leaf);
+        return result;
+    }
+
+    //Tournament tree methods
+    private int allocateLeaf() {
+        if (!freeLeaves.isEmpty()) {
+            return freeLeaves.pop();
+        }
+        if (usedLeaves == leaves.length) {
+            grow();
+        }
+        return usedLeaves++;
+    }
+
+    private void grow() {
+        leaves = Arrays.copyOf(leaves, leaves.length * 2);
+        tree = new int[2 * leaves.length];
+        Arrays.fill(tree, NO_LEAF);
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i] != null) {
+                tree[leaves.length + i] = i;
+            }
+        }
+        for (int node = leaves.length - 1; node >= 1; node--) {
+            tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Recomputes the winners on the path from the leaf to the root after the head of the leaf changed.
+     */
+    private void replay(int leaf) {
+        int node = leaves.length + leaf;
+        tree[node] = leaves[leaf] != null ? leaf : NO_LEAF;
+        for (node /= 2; node >= 1; node /= 2) {
+            tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    private int winner(int leaf1, int leaf2) {
+        if (leaf1 == NO_LEAF) return leaf2;
+        if (leaf2 == NO_LEAF) return leaf1;
+        return leaves[leaf1].queue.peek().compareTo(leaves[leaf2].queue.peek()) < 0 ? leaf2 : leaf1;
+    }
+}
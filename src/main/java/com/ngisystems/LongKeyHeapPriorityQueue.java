@@ -0,0 +1,279 @@
+package com.ngisystems;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ * A queue that returns elements in order of their priority, from highest to lowest, where the priority is a
+ * {@code long} key extracted from every element.
+ * <p>Operations on this class make no guarantees about the ordering of elements with equal priority.
+ *
+ * <p>The key is extracted once, when the element is added or updated, and kept in an array parallel to the heap.
+ * Restoring the heap only compares these primitive keys, so the elements' {@code compareTo} is never called.
+ * The array layout is the same as in {@link HeapPriorityQueue}.
+ *
+ * <p>The key of an element must not change while it is in the queue without calling {@link #update(Object)}.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class LongKeyHeapPriorityQueue<E> implements PrioritizedQueue<E> {
+
+    private static final int INITIAL_CAPACITY = 10;
+    private final ToLongFunction<? super E> keyExtractor;
+    private final int minCapacity;
+    private E[] queue;
+    private long[] keys;
+    private int size;
+
+    /**
+     * @param keyExtractor returns the priority of an element, higher keys are returned first
+     */
+    public LongKeyHeapPriorityQueue(ToLongFunction<? super E> keyExtractor) {
+        this(keyExtractor, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs a queue presized to hold {@code initialCapacity} elements without growing.
+     *
+     * <p>The queue never shrinks below this capacity when elements are removed.
+     *
+     * @param keyExtractor returns the priority of an element, higher keys are returned first
+     * @param initialCapacity the number of elements the queue can hold before growing
+     * @throws IllegalArgumentException if {@code initialCapacity} is less than 1
+     */
+    public LongKeyHeapPriorityQueue(ToLongFunction<? super E> keyExtractor, int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("Initial capacity must be at least 1");
+        }
+        this.keyExtractor = keyExtractor;
+        minCapacity = initialCapacity;
+        queue = (E[]) new Object[initialCapacity + 1];
+        keys = new long[initialCapacity + 1];
+        size = 0;
+    }
+
+    /**
+     * Constructs a queue ordered by {@link Prioritizable#getPriority()}.
+     */
+    public static <E extends Prioritizable> LongKeyHeapPriorityQueue<E> byPriority() {
+        return new LongKeyHeapPriorityQueue<>(Prioritizable::getPriority);
+    }
+
+    /**
+     * Inserts the specified element into this priority queue.
+     *
+     * <p>This operation runs in amortized O(log n) time, the key is extracted once
+     *
+     * @param e the element to add
+     */
+    public synchronized void add(E e) {
+        if (size >= queue.length - 1) {
+            resize(queue.length * 2);
+        }
+        size++;
+        bubbleUp(size, e, keyExtractor.applyAsLong(e));
+    }
+
+    /**
+     * Retrieves and removes the head of this queue, or returns null if this queue is empty.
+     *
+     * <p>This operation runs in amortized O(log n), see {@link HeapPriorityQueue#poll()}.
+     *
+     * @return the head of this queue, or null if this queue is empty
+     */
+    public synchronized E poll() {
+        if (size < 1) return null;
+        E result = queue[1];
+        E last = queue[size];
+        long lastKey = keys[size];
+        queue[size--] = null;
+        if (size > 0) {
+            bubbleDown(1, last, lastKey);
+        }
+        shrinkIfSparse();
+        return result;
+    }
+
+    /**
+     * Retrieves the head of this queue, or returns null if this queue is empty.
+     *
+     * <p>This operation runs in O(1) because the top priority element is the first element
+     * in the underlying data structure
+     *
+     * @return the head of this queue, or null if this queue is empty
+     */
+    public synchronized E peek() {
+        if (size < 1) return null;
+        return queue[1];
+    }
+
+    /**
+     * Retrieves the key of the head of this queue.
+     *
+     * @throws NoSuchElementException if this queue is empty
+     */
+    public synchronized long peekKey() throws NoSuchElementException {
+        if (size < 1) throw new NoSuchElementException();
+        return keys[1];
+    }
+
+    /**
+     * Returns the number of elements in this queue.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes up to {@code maxElements} elements from the head of this queue while holding the lock once.
+     *
+     * @see PrioritizedQueue#drainTo(Collection, int)
+     */
+    public synchronized int drainTo(Collection<? super E> sink, int maxElements) {
+        return PrioritizedQueue.super.drainTo(sink, maxElements);
+    }
+
+    /**
+     * Replaces an existing element in the queue and extracts the key of the new one.
+     *
+     * <p>Order of operations and complexity:
+     * <li>search for the element in O(n)
+     * <li>replaces the element in O(log n)
+     *
+     * @param existingElement the original element from the queue
+     * @param newElement the updated element to be added
+     * @throws NoSuchElementException if the {@code existingElement} is not found in the queue
+     */
+    public synchronized void update(E existingElement, E newElement) throws NoSuchElementException {
+        replaceAtIndex(getIndex(existingElement), newElement);
+    }
+
+    /**
+     * Extracts the key of an element again after its priority was changed in place, for example with
+     * {@link Prioritizable#setPriority(Integer)}.
+     *
+     * <p>This operation runs in O(n) to search for the element and O(log n) to move it.
+     *
+     * @param element the element whose key changed
+     * @throws NoSuchElementException if the {@code element} is not found in the queue
+     */
+    public synchronized void update(E element) throws NoSuchElementException {
+        replaceAtIndex(getIndex(element), element);
+    }
+
+    /**
+     * Trims the underlying arrays to the number of elements in the queue, but never below the initial capacity.
+     *
+     * <p>This operation runs in O(n) because the elements are copied to new arrays.
+     */
+    public synchronized void trimToSize() {
+        int capacity = Math.max(size, minCapacity);
+        if (capacity < queue.length - 1) {
+            resize(capacity + 1);
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements in this queue. The
+     * iterator does not return the elements in any particular order.
+     *
+     * <p>The returned iterator is a "weakly consistent" iterator that
+     * will never throw {@link java.util.ConcurrentModificationException
+     * ConcurrentModificationException}, and guarantees to traverse
+     * elements as they existed upon construction of the iterator.
+     *
+     * <p>The iterator uses a copy of the current heap and this is constructed in O(n)
+     * @return an iterator over the elements in this queue
+     */
+    public synchronized Iterator<E> iterator() {
+        return new Itr(Arrays.copyOf(queue, size + 1));
+    }
+
+    /**
+     * Returns the number of elements the queue can hold before the underlying arrays have to grow.
+     */
+    synchronized int capacity() {
+        return queue.length - 1;
+    }
+
+    private void resize(int length) {
+        queue = Arrays.copyOf(queue, length);
+        keys = Arrays.copyOf(keys, length);
+    }
+
+    private void shrinkIfSparse() {
+        int capacity = queue.length - 1;
+        if (capacity > minCapacity && size <= capacity / 4) {
+            resize(Math.max(capacity / 2, minCapacity) + 1);
+        }
+    }
+
+    private void replaceAtIndex(int index, E newElement) {
+        long key = keyExtractor.applyAsLong(newElement);
+        if (index > 1 && keys[index / 2] < key) {
+            bubbleUp(index, newElement, key);
+        } else {
+            bubbleDown(index, newElement, key);
+        }
+    }
+
+    private int getIndex(E element) throws NoSuchElementException {
+        for (int i = 1; i <= size; i++) { //linear time O(n)
+            if (queue[i].equals(element)) {
+                return i;
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    private class Itr implements Iterator<E> {
+        private E[] items;
+        private int cursor = 1;
+
+        Itr(E[] items) {
+            this.items = items;
+        }
+
+        public boolean hasNext() {
+            return cursor < items.length;
+        }
+
+        public E next() {
+            if (cursor >= items.length)
+                throw new NoSuchElementException();
+            return items[cursor++];
+        }
+    }
+
+    //Binary Heap methods, they move the hole down (or up) and only write the element once its place is found
+    private void bubbleDown(int index, E element, long key) {
+        int half = size / 2;
+        while (index <= half) {
+            int child = index * 2;
+            if (child < size && keys[child] < keys[child + 1]) {
+                child++;
+            }
+            if (key >= keys[child]) {
+                break;
+            }
+            queue[index] = queue[child];
+            keys[index] = keys[child];
+            index = child;
+        }
+        queue[index] = element;
+        keys[index] = key;
+    }
+
+    private void bubbleUp(int index, E element, long key) {
+        while (index > 1 && keys[index / 2] < key) {
+            queue[index] = queue[index / 2];
+            keys[index] = keys[index / 2];
+            index /= 2;
+        }
+        queue[index] = element;
+        keys[index] = key;
+    }
+}
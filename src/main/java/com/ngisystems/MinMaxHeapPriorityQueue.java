@@ -0,0 +1,322 @@
+package com.ngisystems;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A double-ended queue that returns elements in order of their priority, both from the highest and from the lowest.
+ * <p>Operations on this class make no guarantees about the ordering of elements with equal priority.
+ *
+ * <p>The elements are stored in a min-max heap: nodes on even levels, starting with the root, are greater than or
+ * equal to all their descendants and nodes on odd levels are less than or equal to all their descendants.
+ * The largest element is the root and the smallest is one of its children.
+ * The array layout is the same as in {@link HeapPriorityQueue}.
+ *
+ * @param <E> the type of elements held in the queue.(Must implement {@code Comparable<E>}
+ */
+public class MinMaxHeapPriorityQueue<E extends Comparable<E>> implements PrioritizedQueue<E> {
+
+    private static final int INITIAL_CAPACITY = 10;
+    private final int minCapacity;
+    private E[] queue;
+    private int size;
+
+    public MinMaxHeapPriorityQueue() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs a queue presized to hold {@code initialCapacity} elements without growing.
+     *
+     * <p>The queue never shrinks below this capacity when elements are removed.
+     *
+     * @param initialCapacity the number of elements the queue can hold before growing
+     * @throws IllegalArgumentException if {@code initialCapacity} is less than 1
+     */
+    public MinMaxHeapPriorityQueue(int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("Initial capacity must be at least 1");
+        }
+        minCapacity = initialCapacity;
+        queue = (E[]) new Comparable[initialCapacity + 1];
+        size = 0;
+    }
+
+    /**
+     * Inserts the specified element into this priority queue.
+     *
+     * <p>This operation runs in amortized O(log n) time because the element only climbs along its own min or max
+     * levels, but the queue still needs to increase it's size once it is full
+     *
+     * @param e the element to add
+     */
+    public synchronized void add(E e) {
+        if (size >= queue.length - 1) {
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        queue[++size] = e;
+        bubbleUp(size);
+    }
+
+    /**
+     * Same as {@link #pollMax()}.
+     */
+    public E poll() {
+        return pollMax();
+    }
+
+    /**
+     * Same as {@link #peekMax()}.
+     */
+    public E peek() {
+        return peekMax();
+    }
+
+    /**
+     * Retrieves and removes the highest priority element, or returns null if this queue is empty.
+     *
+     * <p>This operation runs in O(log n)
+     *
+     * @return the highest priority element, or null if this queue is empty
+     */
+    public synchronized E pollMax() {
+        if (size < 1) return null;
+        return removeAt(1);
+    }
+
+    /**
+     * Retrieves and removes the lowest priority element, or returns null if this queue is empty.
+     *
+     * <p>This operation runs in O(log n)
+     *
+     * @return the lowest priority element, or null if this queue is empty
+     */
+    public synchronized E pollMin() {
+        if (size < 1) return null;
+        return removeAt(minIndex());
+    }
+
+    /**
+     * Retrieves the highest priority element, or returns null if this queue is empty.
+     *
+     * <p>This operation runs in O(1) because it is the root of the heap
+     *
+     * @return the highest priority element, or null if this queue is empty
+     */
+    public synchronized E peekMax() {
+        if (size < 1) return null;
+        return queue[1];
+    }
+
+    /**
+     * Retrieves the lowest priority element, or returns null if this queue is empty.
+     *
+     * <p>This operation runs in O(1) because it is one of the children of the root
+     *
+     * @return the lowest priority element, or null if this queue is empty
+     */
+    public synchronized E peekMin() {
+        if (size < 1) return null;
+        return queue[minIndex()];
+    }
+
+    /**
+     * Returns the number of elements in this queue.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes up to {@code maxElements} of the highest priority elements while holding the lock once.
+     *
+     * @see PrioritizedQueue#drainTo(Collection, int)
+     */
+    public synchronized int drainTo(Collection<? super E> sink, int maxElements) {
+        return PrioritizedQueue.super.drainTo(sink, maxElements);
+    }
+
+    /**
+     * Updates an existing element in the queue.
+     * This method should be used to update the priority of the element.
+     *
+     * <p>Order of operations and complexity:
+     * <li>search for the element in O(n)
+     * <li>removes the element and inserts the new one in O(log n)
+     *
+     * @param existingElement the original element from the queue
+     * @param newElement the updated element to be added
+     * @throws NoSuchElementException if the {@code existingElement} is not found in the queue
+     */
+    public synchronized void update(E existingElement, E newElement) throws NoSuchElementException {
+        removeAt(getIndex(existingElement));        //O(n) + O(log n)
+        add(newElement);                            //O(log n)
+    }
+
+    /**
+     * Returns an iterator over the elements in this queue. The
+     * iterator does not return the elements in any particular order.
+     *
+     * <p>The returned iterator is a "weakly consistent" iterator that
+     * will never throw {@link java.util.ConcurrentModificationException
+     * ConcurrentModificationException}, and guarantees to traverse
+     * elements as they existed upon construction of the iterator.
+     *
+     * <p>The iterator uses a copy of the current heap and this is constructed in O(n)
+     * @return an iterator over the elements in this queue
+     */
+    public synchronized Iterator<E> iterator() {
+        return new Itr(Arrays.copyOf(queue, size + 1));
+    }
+
+    private int getIndex(E element) throws NoSuchElementException {
+        for (int i = 1; i <= size; i++) { //linear time O(n)
+            if (queue[i].equals(element)) {
+                return i;
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    private int minIndex() {
+        if (size < 3) return size;
+        return queue[2].compareTo(queue[3]) <= 0 ? 2 : 3;
+    }
+
+    /**
+     * Removes the element at the index by moving its max (or min) ancestors one step down its own chain of levels,
+     * which keeps them valid, and then refilling the emptied root (or child of the root) with the last element.
+     */
+    private E removeAt(int index) {
+        E result = queue[index];
+        if (index == size) {
+            queue[size--] = null;
+        } else {
+            while (index >= 4) {
+                queue[index] = queue[index / 4];
+                index /= 4;
+            }
+            queue[index] = queue[size];
+            queue[size--] = null;
+            pushDown(index, isMaxLevel(index));
+        }
+        shrinkIfSparse();
+        return result;
+    }
+
+    private void shrinkIfSparse() {
+        int capacity = queue.length - 1;
+        if (capacity > minCapacity && size <= capacity / 4) {
+            queue = Arrays.copyOf(queue, Math.max(capacity / 2, minCapacity) + 1);
+        }
+    }
+
+    private class Itr implements Iterator<E> {
+        private E[] items;
+        private int cursor = 1;
+
+        Itr(E[] items) {
+            this.items = items;
+        }
+
+        public boolean hasNext() {
+            return cursor < items.length;
+        }
+
+        public E next() {
+            if (cursor >= items.length)
+                throw new NoSuchElementException();
+            return items[cursor++];
+        }
+    }
+
+    //Min-max heap methods
+    private void pushDown(int index, boolean max) {
+        while (leftIndex(index) <= size) {
+            int extreme = extremeDescendant(index, max);
+
+            if (!isBefore(extreme, index, max)) {
+                break;
+            }
+            swap(index, extreme);
+            if (extreme < leftIndex(leftIndex(index))) {
+                //a child is on the opposite kind of level and has no descendants on ours
+                break;
+            }
+            if (isBefore(parentIndex(extreme), extreme, max)) {
+                swap(extreme, parentIndex(extreme));
+            }
+            index = extreme;
+        }
+    }
+
+    /**
+     * Returns the greatest (or least) of the children and grandchildren of the index.
+     */
+    private int extremeDescendant(int index, boolean max) {
+        int extreme = leftIndex(index);
+        if (rightIndex(index) <= size && isBefore(rightIndex(index), extreme, max)) {
+            extreme = rightIndex(index);
+        }
+        int lastGrandchild = Math.min(rightIndex(rightIndex(index)), size);
+        for (int i = leftIndex(leftIndex(index)); i <= lastGrandchild; i++) {
+            if (isBefore(i, extreme, max)) {
+                extreme = i;
+            }
+        }
+        return extreme;
+    }
+
+    private void bubbleUp(int index) {
+        if (index == 1) return;
+        boolean max = isMaxLevel(index);
+        int parent = parentIndex(index);
+
+        if (isBefore(index, parent, !max)) {
+            // the element belongs to the parent's kind of level
+            swap(index, parent);
+            bubbleUpChain(parent, !max);
+        } else {
+            bubbleUpChain(index, max);
+        }
+    }
+
+    private void bubbleUpChain(int index, boolean max) {
+        while (index >= 4 && isBefore(index, index / 4, max)) {
+            swap(index, index / 4);
+            index /= 4;
+        }
+    }
+
+    /**
+     * Returns true if the element at index1 must be above the element at index2 on a max (or min) level.
+     */
+    private boolean isBefore(int index1, int index2, boolean max) {
+        int c = queue[index1].compareTo(queue[index2]);
+        return max ? c > 0 : c < 0;
+    }
+
+    private boolean isMaxLevel(int i) {
+        return (31 - Integer.numberOfLeadingZeros(i)) % 2 == 0;
+    }
+
+    private void swap(int index1, int index2) {
+        E tmp = queue[index1];
+        queue[index1] = queue[index2];
+        queue[index2] = tmp;
+    }
+
+    private int leftIndex(int i) {
+        return i * 2;
+    }
+
+    private int rightIndex(int i) {
+        return i * 2 + 1;
+    }
+
+    private int parentIndex(int i) {
+        return i / 2;
+    }
+}
@@ -0,0 +1,53 @@
+package com.ngisystems;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A queue that returns elements in order of their priority, from highest to lowest.
+ *
+ * <p>How the priority of an element is determined is up to the implementation.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public interface PrioritizedQueue<E> {
+
+    void add(E e);
+
+    /**
+     * Retrieves and removes the head of this queue, or returns null if this queue is empty.
+     */
+    E poll();
+
+    /**
+     * Retrieves the head of this queue, or returns null if this queue is empty.
+     */
+    E peek();
+
+    int size();
+
+    /**
+     * Removes up to {@code maxElements} elements from the head of this queue and adds them to the sink,
+     * in the order they are polled.
+     *
+     * <p>Implementations that guard their state with a lock drain the whole batch under one acquisition.
+     *
+     * @param sink the collection to add the elements to
+     * @param maxElements the maximum number of elements to remove
+     * @return the number of elements removed
+     */
+    default int drainTo(Collection<? super E> sink, int maxElements) {
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            sink.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements in this queue.
+     */
+    Iterator<E> iterator();
+}
@@ -0,0 +1,233 @@
+package com.ngisystems;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} that emits the elements of a queue in order of their priority, as fast as its subscribers
+ * request them.
+ *
+ * <p>Every subscription drains the queue on the executor whenever it has outstanding demand and the queue is
+ * signalled, either by {@link #add(Object)} or by {@link #signal()} for producers that add to the queue directly.
+ * Elements are removed in batches of up to {@value #BATCH_SIZE} with {@link PrioritizedQueue#drainTo}, which takes
+ * the queue lock once per batch, and are delivered outside the lock.
+ * An idle subscription does not use any thread.
+ *
+ * <p>The subscribers share the queue: every element is delivered to exactly one of them. Elements that were
+ * drained but not delivered, because the subscription was cancelled or {@code onNext} threw, are added back to
+ * the queue.
+ *
+ * <p>After {@link #close()} every subscriber is completed once the queue is empty.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class PriorityQueuePublisher<E> implements Flow.Publisher<E> {
+
+    static final int BATCH_SIZE = 64;
+
+    private final PrioritizedQueue<E> queue;
+    private final Executor executor;
+    private final List<PrioritySubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Constructs a publisher that delivers the elements on the {@link ForkJoinPool#commonPool() common pool}.
+     *
+     * @param queue the queue to publish
+     */
+    public PriorityQueuePublisher(PrioritizedQueue<E> queue) {
+        this(queue, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param queue the queue to publish
+     * @param executor the executor the elements are delivered on. Every subscription runs at most one task at a time
+     */
+    public PriorityQueuePublisher(PrioritizedQueue<E> queue, Executor executor) {
+        this.queue = queue;
+        this.executor = executor;
+    }
+
+    /**
+     * Adds the element to the queue and signals the subscribers.
+     *
+     * @param e the element to add
+     * @throws IllegalStateException if the publisher is closed, or if the queue rejects the element
+     */
+    public void add(E e) throws IllegalStateException {
+        //checked under the queue lock, so an element accepted here is in the queue before close() returns
+        synchronized (queue) {
+            if (closed) {
+                throw new IllegalStateException("Publisher is closed");
+            }
+            queue.add(e);
+        }
+        signal();
+    }
+
+    /**
+     * Makes the subscribers with outstanding demand drain the queue.
+     * Producers that add elements to the queue directly must call this afterwards.
+     */
+    public void signal() {
+        for (PrioritySubscription subscription : subscriptions) {
+            if (subscription.requested.get() > 0) {
+                subscription.schedule();
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super E> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException();
+        }
+        PrioritySubscription subscription = new PrioritySubscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Stops accepting elements. The subscribers keep receiving the queued elements and are completed once the queue
+     * is empty. Producers that add to the queue directly must stop before calling this.
+     */
+    public void close() {
+        synchronized (queue) {
+            closed = true;
+        }
+        for (PrioritySubscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Returns the number of subscribers that have not cancelled or been completed.
+     */
+    int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    private final class PrioritySubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super E> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        /**
+         * The number of signals since the drain task last checked, the task is scheduled when it leaves 0.
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+        private final List<E> batch = new ArrayList<>(BATCH_SIZE);
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        /**
+         * Set once {@code onSubscribe} has returned, the drain task is not scheduled before so that it cannot call
+         * {@code onNext} concurrently with {@code onSubscribe}.
+         */
+        private volatile boolean started;
+
+        PrioritySubscription(Flow.Subscriber<? super E> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " elements, must be positive");
+            } else {
+                requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Schedules the drain task for the demand or the close signalled while {@code onSubscribe} was running.
+         */
+        void start() {
+            started = true;
+            if (requested.get() > 0 || error != null || closed) {
+                schedule();
+            }
+        }
+
+        void schedule() {
+            if (!started) {
+                return;
+            }
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                deliver();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (!cancelled) {
+                if (error != null) {
+                    cancel();
+                    subscriber.onError(error);
+                    return;
+                }
+                long demand = requested.get();
+                if (demand == 0) {
+                    break;
+                }
+                batch.clear();
+                int count = queue.drainTo(batch, (int) Math.min(demand, BATCH_SIZE));
+                if (count == 0) {
+                    break;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-count);
+                }
+                for (int i = 0; i < count; i++) {
+                    if (cancelled) {
+                        requeue(i);
+                        return;
+                    }
+                    try {
+                        subscriber.onNext(batch.get(i));
+                    } catch (RuntimeException e) {
+                        //the subscriber broke the contract, treat it as cancelled
+                        cancel();
+                        requeue(i + 1);
+                        return;
+                    }
+                }
+            }
+
+            if (!cancelled && closed && queue.size() == 0) {
+                cancel();
+                subscriber.onComplete();
+            }
+        }
+
+        private void requeue(int from) {
+            boolean requeued = from < batch.size();
+            for (int i = from; i < batch.size(); i++) {
+                queue.add(batch.get(i));
+            }
+            batch.clear();
+            if (requeued) {
+                //another subscriber may be waiting for them
+                signal();
+            }
+        }
+    }
+}
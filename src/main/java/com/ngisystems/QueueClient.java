@@ -0,0 +1,209 @@
+package com.ngisystems;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Client for a queue shared by a {@link QueueServer}.
+ *
+ * <p>Errors raised by the remote queue are thrown as the same exceptions the local queue would throw:
+ * {@link IllegalStateException} for a rejected element and {@link NoSuchElementException} for a missing one.
+ *
+ * <p>This class is not thread safe, every thread should use its own client.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class QueueClient<E> implements Closeable {
+
+    /**
+     * The number of requests {@link #addAll(Collection)} sends before reading their responses. The responses of a
+     * window stay well below {@link QueueServer#MAX_PENDING_OUTPUT}, so the server never stops reading while the
+     * client is still writing.
+     */
+    static final int PIPELINE_WINDOW = 1024;
+
+    private final ElementCodec<E> codec;
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    private final DataOutputStream requestData = new DataOutputStream(request);
+
+    /**
+     * Connects to a queue server.
+     *
+     * @param address the address of the server
+     * @param codec the codec used to read and write the elements, the same as the server's
+     * @throws IOException if the connection fails
+     */
+    public QueueClient(InetSocketAddress address, ElementCodec<E> codec) throws IOException {
+        this.codec = codec;
+        this.channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    public void add(E element) throws IOException, IllegalStateException {
+        sendAdd(element);
+        out.flush();
+        readStatus();
+    }
+
+    /**
+     * Adds all the elements, sending up to {@value #PIPELINE_WINDOW} requests before reading their responses.
+     *
+     * @param elements the elements to add
+     * @throws IllegalStateException if the remote queue rejected any of the elements. All the other elements are
+     * added regardless
+     */
+    public void addAll(Collection<? extends E> elements) throws IOException, IllegalStateException {
+        IllegalStateException rejected = null;
+        int sent = 0;
+        for (E element : elements) {
+            sendAdd(element);
+            if (++sent == PIPELINE_WINDOW) {
+                rejected = readAddResponses(sent, rejected);
+                sent = 0;
+            }
+        }
+        rejected = readAddResponses(sent, rejected);
+        if (rejected != null) {
+            throw rejected;
+        }
+    }
+
+    /**
+     * Retrieves and removes the head of the remote queue, or returns null if it is empty.
+     */
+    public E poll() throws IOException {
+        send(QueueProtocol.POLL);
+        return readStatus() == QueueProtocol.EMPTY ? null : codec.read(in);
+    }
+
+    /**
+     * Retrieves and removes up to {@code max} elements from the head of the remote queue in one round trip.
+     *
+     * @param max the maximum number of elements to retrieve
+     * @return the elements in the order they were polled, empty if the queue is empty
+     */
+    public List<E> pollBatch(int max) throws IOException {
+        request.reset();
+        requestData.writeByte(QueueProtocol.POLL_BATCH);
+        requestData.writeInt(max);
+        flushRequest();
+
+        readStatus();
+        int count = in.readInt();
+        List<E> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(codec.read(in));
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the head of the remote queue, or returns null if it is empty.
+     */
+    public E peek() throws IOException {
+        send(QueueProtocol.PEEK);
+        return readStatus() == QueueProtocol.EMPTY ? null : codec.read(in);
+    }
+
+    /**
+     * Updates the priority of an element of the remote queue, see {@link BucketsPriorityQueue#update}.
+     */
+    public void update(E element, int newPriority)
+            throws IOException, NoSuchElementException, IllegalStateException {
+        request.reset();
+        requestData.writeByte(QueueProtocol.UPDATE);
+        requestData.writeInt(newPriority);
+        codec.write(element, requestData);
+        flushRequest();
+        readStatus();
+    }
+
+    public int size() throws IOException {
+        send(QueueProtocol.SIZE);
+        readStatus();
+        return in.readInt();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void sendAdd(E element) throws IOException {
+        request.reset();
+        requestData.writeByte(QueueProtocol.ADD);
+        codec.write(element, requestData);
+        writeFrame();
+    }
+
+    /**
+     * Flushes the pipelined add requests and reads their responses.
+     *
+     * @return the first rejection, either the given one or one of these responses
+     */
+    private IllegalStateException readAddResponses(int count, IllegalStateException rejected) throws IOException {
+        out.flush();
+        for (int i = 0; i < count; i++) {
+            try {
+                readStatus();
+            } catch (IllegalStateException e) {
+                rejected = rejected == null ? e : rejected;
+            }
+        }
+        return rejected;
+    }
+
+    private void send(byte operation) throws IOException {
+        request.reset();
+        requestData.writeByte(operation);
+        flushRequest();
+    }
+
+    private void flushRequest() throws IOException {
+        writeFrame();
+        out.flush();
+    }
+
+    private void writeFrame() throws IOException {
+        out.writeInt(request.size());
+        request.writeTo(out);
+    }
+
+    /**
+     * Reads the length and status of the next response and throws the remote error, if any.
+     * The caller reads the rest of the payload.
+     */
+    private byte readStatus() throws IOException {
+        in.readInt();
+        byte status = in.readByte();
+        switch (status) {
+            case QueueProtocol.OK:
+            case QueueProtocol.EMPTY:
+                return status;
+            case QueueProtocol.REJECTED:
+                throw new IllegalStateException(in.readUTF());
+            case QueueProtocol.NOT_FOUND:
+                throw new NoSuchElementException(in.readUTF());
+            default:
+                throw new IOException("Queue server error: " + in.readUTF());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.ngisystems;
+
+/**
+ * Binary protocol spoken between {@link QueueServer} and {@link QueueClient}.
+ *
+ * <p>Every request and response is a frame made of a 4 byte payload length followed by the payload.
+ * A request payload starts with the operation byte:
+ * <ul>
+ * <li>ADD: element
+ * <li>POLL, PEEK, SIZE: nothing
+ * <li>POLL_BATCH: int maximum number of elements
+ * <li>UPDATE: int new priority, element
+ * </ul>
+ * A response payload starts with a status byte. OK is followed by the result if the operation has one: an element
+ * for POLL and PEEK, an int count and that many elements for POLL_BATCH, an int for SIZE. EMPTY answers a POLL or
+ * PEEK on an empty queue. The error statuses are followed by a UTF message.
+ *
+ * <p>Responses are sent in the order of the requests, so a client can send several requests before reading
+ * the responses.
+ */
+final class QueueProtocol {
+
+    static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    static final byte ADD = 1;
+    static final byte POLL = 2;
+    static final byte POLL_BATCH = 3;
+    static final byte PEEK = 4;
+    static final byte UPDATE = 5;
+    static final byte SIZE = 6;
+
+    static final byte OK = 0;
+    static final byte EMPTY = 1;
+    /** The queue threw {@link IllegalStateException}, e.g. the priority is out of range or the queue is full. */
+    static final byte REJECTED = 2;
+    /** The element to update was not found. */
+    static final byte NOT_FOUND = 3;
+    static final byte ERROR = 4;
+
+    private QueueProtocol() {
+    }
+}
@@ -0,0 +1,321 @@
+package com.ngisystems;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Shares a {@link BucketsPriorityQueue} with other processes over TCP, see {@link QueueProtocol} for the format.
+ *
+ * <p>A single thread serves all the connections with a non-blocking selector. All the complete requests received
+ * on a connection are executed in order and their responses are written back together, so pipelined requests are
+ * answered with as few writes as possible. A connection whose client does not read its responses stops being read
+ * once {@value #MAX_PENDING_OUTPUT} bytes of responses are pending, and is read again when they are sent. A client
+ * that pipelines requests must therefore read the responses before that many are outstanding, as
+ * {@link QueueClient#addAll} does.
+ *
+ * <p>The codec must encode the priority of the elements, as it is used to add them to the queue.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class QueueServer<E extends Prioritizable> implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_PENDING_OUTPUT = 4 * BUFFER_SIZE;
+
+    private static class Connection {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    private final BucketsPriorityQueue<E> queue;
+    private final ElementCodec<E> codec;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Thread thread;
+    private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    private final DataOutputStream responseData = new DataOutputStream(response);
+    private volatile boolean running = true;
+
+    /**
+     * Binds the server to the address and starts serving requests on a new thread.
+     *
+     * @param queue the queue to share
+     * @param codec the codec used to read and write the elements
+     * @param address the address to listen on, the port may be 0 to pick a free one
+     * @throws IOException if the server cannot be bound
+     */
+    public QueueServer(BucketsPriorityQueue<E> queue, ElementCodec<E> codec, InetSocketAddress address)
+            throws IOException {
+        this.queue = queue;
+        this.codec = codec;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        thread = new Thread(this::run, "queue-server-" + getAddress().getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the address the server is listening on.
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Stops the server and closes all the connections.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        //the client went away or sent a malformed frame
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Queue server failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                    //closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                //closing anyway
+            }
+        }
+    }
+
+    /**
+     * Accepts a pending connection. A failure only drops that connection, the server keeps listening.
+     */
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+        } catch (IOException e) {
+            //e.g. out of file descriptors, the connection stays pending and is retried on the next select
+            return;
+        }
+        if (channel == null) return;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        } catch (IOException e) {
+            //the client went away before it was registered
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                //closing anyway
+            }
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(connection.in) < 0) {
+            channel.close();
+            return;
+        }
+        write(key);
+    }
+
+    /**
+     * Sends the pending responses, executes the buffered requests unless too many responses are pending, and reads
+     * from the connection again only once they are below {@value #MAX_PENDING_OUTPUT} bytes.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        flush(connection, channel);
+        while (connection.out.position() < MAX_PENDING_OUTPUT && handleFrames(connection)) {
+            //requests are still held back, keep going while the client takes the responses
+            flush(connection, channel);
+        }
+
+        int pending = connection.out.position();
+        int ops = pending < MAX_PENDING_OUTPUT ? SelectionKey.OP_READ : 0;
+        key.interestOps(pending > 0 ? ops | SelectionKey.OP_WRITE : ops);
+    }
+
+    private void flush(Connection connection, SocketChannel channel) throws IOException {
+        connection.out.flip();
+        channel.write(connection.out);
+        connection.out.compact();
+    }
+
+    /**
+     * Executes the complete requests in the input buffer until the pending responses reach
+     * {@value #MAX_PENDING_OUTPUT} bytes.
+     *
+     * @return true if requests were held back because of the pending responses
+     */
+    private boolean handleFrames(Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        in.flip();
+        boolean held = false;
+        while (in.remaining() >= 4) {
+            if (connection.out.position() >= MAX_PENDING_OUTPUT) {
+                held = true;
+                break;
+            }
+            int length = in.getInt(in.position());
+            if (length < 1 || length > QueueProtocol.MAX_FRAME) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            in.getInt();
+            byte[] payload = new byte[length];
+            in.get(payload);
+            handle(payload, connection);
+        }
+        in.compact();
+        if (!held && !in.hasRemaining()) {
+            //the next frame does not fit
+            connection.in = grow(in, in.capacity() * 2);
+        }
+        return held;
+    }
+
+    private void handle(byte[] payload, Connection connection) throws IOException {
+        DataInputStream request = new DataInputStream(new ByteArrayInputStream(payload));
+        response.reset();
+        try {
+            execute(request);
+        } catch (IllegalStateException e) {
+            error(QueueProtocol.REJECTED, e);
+        } catch (NoSuchElementException e) {
+            error(QueueProtocol.NOT_FOUND, e);
+        } catch (RuntimeException e) {
+            error(QueueProtocol.ERROR, e);
+        }
+
+        int length = response.size();
+        if (connection.out.remaining() < 4 + length) {
+            int capacity = Math.max(connection.out.capacity() * 2, connection.out.position() + 4 + length);
+            connection.out = grow(connection.out, capacity);
+        }
+        connection.out.putInt(length);
+        connection.out.put(response.toByteArray());
+    }
+
+    private void execute(DataInputStream request) throws IOException {
+        byte operation = request.readByte();
+        switch (operation) {
+            case QueueProtocol.ADD:
+                queue.add(codec.read(request));
+                responseData.writeByte(QueueProtocol.OK);
+                break;
+            case QueueProtocol.POLL:
+                writeElement(queue.poll());
+                break;
+            case QueueProtocol.PEEK:
+                writeElement(queue.peek());
+                break;
+            case QueueProtocol.POLL_BATCH:
+                List<E> batch = new ArrayList<>();
+                queue.drainTo(batch, request.readInt());
+                responseData.writeByte(QueueProtocol.OK);
+                responseData.writeInt(batch.size());
+                for (E element : batch) {
+                    codec.write(element, responseData);
+                }
+                break;
+            case QueueProtocol.UPDATE:
+                int newPriority = request.readInt();
+                queue.update(codec.read(request), newPriority);
+                responseData.writeByte(QueueProtocol.OK);
+                break;
+            case QueueProtocol.SIZE:
+                responseData.writeByte(QueueProtocol.OK);
+                responseData.writeInt(queue.size());
+                break;
+            default:
+                throw new IOException("Unknown operation " + operation);
+        }
+    }
+
+    private void writeElement(E element) throws IOException {
+        if (element == null) {
+            responseData.writeByte(QueueProtocol.EMPTY);
+        } else {
+            responseData.writeByte(QueueProtocol.OK);
+            codec.write(element, responseData);
+        }
+    }
+
+    private void error(byte status, RuntimeException e) throws IOException {
+        response.reset();
+        responseData.writeByte(status);
+        responseData.writeUTF(String.valueOf(e.getMessage()));
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,234 @@
+package com.ngisystems;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Header, body framing and file channel helpers shared by the queue snapshot readers and writers.
+ *
+ * <p>Every snapshot starts with a 4 byte magic number, a version byte and a byte identifying the queue type.
+ * The body follows as chunks of up to {@value #CHUNK_SIZE} bytes, each prefixed with its length, and ends with
+ * an empty chunk. The layout of the body is defined by the queue that wrote it.
+ *
+ * <p>The reader knows the length of every chunk before reading it, so it reads whole chunks into its own buffer
+ * however the stream is buffered, and never reads past the end of the snapshot.
+ */
+final class SnapshotFormat {
+
+    static final int MAGIC = 0x4E475051; //"NGPQ"
+    static final byte VERSION = 2;
+
+    static final byte HEAP = 1;
+    static final byte BUCKETS = 2;
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private SnapshotFormat() {
+    }
+
+    /**
+     * Writes a snapshot of the given type, the writer writes the body. The stream is flushed but not closed.
+     */
+    static void write(OutputStream out, byte type, Writer writer) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        writeHeader(data, type);
+        ChunkedOutputStream body = new ChunkedOutputStream(data);
+        writer.write(new DataOutputStream(body));
+        body.finish();
+        data.flush();
+    }
+
+    /**
+     * Reads a snapshot of the given type, the reader decodes the body. Exactly the bytes of the snapshot are read.
+     *
+     * @throws IOException if the header does not match or the reader does not decode the whole body
+     */
+    static <T> T read(InputStream in, byte type, Reader<T> reader) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        readHeader(data, type);
+        ChunkedInputStream body = new ChunkedInputStream(data);
+        T result = reader.read(new DataInputStream(body));
+        if (body.read() >= 0) {
+            throw new IOException("Corrupt snapshot, unexpected data after the elements");
+        }
+        return result;
+    }
+
+    /**
+     * Reads a snapshot starting at the current position of the channel through a read-only memory mapping
+     * and leaves the channel positioned right after it.
+     *
+     * <p>At most 2GB are mapped, so larger snapshots must be read from a stream.
+     */
+    static <T> T readMapped(FileChannel channel, byte type, Reader<T> reader) throws IOException {
+        long start = channel.position();
+        long length = Math.min(channel.size() - start, Integer.MAX_VALUE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        T result = read(new ByteBufferInputStream(buffer), type, reader);
+        channel.position(start + buffer.position());
+        return result;
+    }
+
+    private static void writeHeader(DataOutput out, byte type) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    private static void readHeader(DataInput in, byte type) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a priority queue snapshot");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        if (in.readByte() != type) {
+            throw new IOException("Snapshot was written by a different queue type");
+        }
+    }
+
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Collects the body into chunks and writes each one with its length.
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int count;
+
+        ChunkedOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == chunk.length) {
+                writeChunk();
+            }
+            chunk[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == chunk.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Writes the last chunk and the empty chunk that ends the body.
+         */
+        void finish() throws IOException {
+            if (count > 0) {
+                writeChunk();
+            }
+            out.writeInt(0);
+        }
+
+        private void writeChunk() throws IOException {
+            out.writeInt(count);
+            out.write(chunk, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Reads the body one whole chunk at a time and returns -1 at the empty chunk that ends it.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final DataInputStream in;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int position;
+        private int count;
+        private boolean ended;
+
+        ChunkedInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == count && !nextChunk()) return -1;
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position == count && !nextChunk()) return -1;
+            len = Math.min(len, count - position);
+            System.arraycopy(chunk, position, b, off, len);
+            position += len;
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return count - position;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (ended) return false;
+            int length = in.readInt();
+            if (length < 0 || length > CHUNK_SIZE) {
+                throw new IOException("Corrupt snapshot, invalid chunk length " + length);
+            }
+            in.readFully(chunk, 0, length);
+            position = 0;
+            count = length;
+            ended = length == 0;
+            return !ended;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.ngisystems;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Compares {@link HeapPriorityQueue}, {@link BucketsPriorityQueue} and {@link AdaptivePriorityQueue} on mixed
+ * workloads and prints the time of each run.
+ *
+ * <p>Every run fills the queue with half of the elements, then alternates one add and one poll for the other half
+ * and finally drains it. The workloads are a few dense priorities, a medium range of priorities, a sparse range
+ * too wide for buckets, and a phase change from dense to sparse priorities in the same queue.
+ *
+ * <p>Usage: {@code AdaptivePriorityQueueBenchmark [elements] [rounds]}, 2,000,000 elements and 3 rounds by default.
+ * The first round includes JIT warm up.
+ */
+class AdaptivePriorityQueueBenchmark {
+
+    private static class Job implements Prioritizable, Comparable<Job> {
+        private int priority;
+
+        Job(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void setPriority(Integer priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            return Integer.compare(priority, o.priority);
+        }
+    }
+
+    public static void main(String[] args) {
+        int elements = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Job[] dense = jobs(elements, 16, 1);
+        Job[] medium = jobs(elements, 4096, 2);
+        Job[] sparse = jobs(elements, 1_000_000_000, 3);
+        Job[] phaseChange = new Job[2 * elements];
+        System.arraycopy(jobs(elements, 16, 4), 0, phaseChange, 0, elements);
+        System.arraycopy(jobs(elements, 1_000_000_000, 5), 0, phaseChange, elements, elements);
+
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("round " + round);
+            report("dense, 16 priorities", dense, 16);
+            report("medium, 4096 priorities", medium, 4096);
+            report("sparse, 1e9 range", sparse, 0);
+            report("dense then sparse", phaseChange, 0);
+        }
+    }
+
+    /**
+     * @param maxPriority the bucket count for the buckets queue, 0 if the workload does not fit buckets
+     */
+    private static void report(String workload, Job[] jobs, int maxPriority) {
+        long heap = run(HeapPriorityQueue::new, jobs);
+        String buckets = maxPriority > 0 ? run(() -> new BucketsPriorityQueue<>(maxPriority), jobs) + "ms" : "n/a";
+        long adaptive = run(AdaptivePriorityQueue::new, jobs);
+        System.out.printf("  %-24s heap=%6dms buckets=%8s adaptive=%6dms%n", workload, heap, buckets, adaptive);
+    }
+
+    private static long run(Supplier<PrioritizedQueue<Job>> factory, Job[] jobs) {
+        PrioritizedQueue<Job> q = factory.get();
+        long start = System.nanoTime();
+        int half = jobs.length / 2;
+        for (int i = 0; i < half; i++) {
+            q.add(jobs[i]);
+        }
+        for (int i = half; i < jobs.length; i++) {
+            q.add(jobs[i]);
+            q.poll();
+        }
+        while (q.poll() != null) {
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static Job[] jobs(int count, int priorities, long seed) {
+        Random random = new Random(seed);
+        Job[] jobs = new Job[count];
+        for (int i = 0; i < count; i++) {
+            jobs[i] = new Job(random.nextInt(priorities) + 1);
+        }
+        return jobs;
+    }
+}
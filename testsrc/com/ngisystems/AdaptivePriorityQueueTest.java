@@ -0,0 +1,144 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptivePriorityQueueTest {
+
+    @Test
+    void pollShouldReturnNullIfQueueEmpty() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        assertNull(q.poll(), "Poll should return null if the queue is empty.");
+        assertNull(q.peek(), "Peek should return null if the queue is empty.");
+    }
+
+    @Test
+    void densePrioritiesShouldSwitchToBuckets() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        addRandom(q, 5000, 10);
+
+        assertTrue(q.usesBuckets(), "A few dense priorities should be stored in buckets");
+        assertDrainsInOrder(q, 5000);
+    }
+
+    @Test
+    void sparsePrioritiesShouldStayInHeap() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        addRandom(q, 5000, 1_000_000);
+
+        assertFalse(q.usesBuckets(), "A wide sparse range of priorities should be stored in a heap");
+        assertDrainsInOrder(q, 5000);
+    }
+
+    @Test
+    void widePriorityShouldMoveBucketsBackToHeap() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        addRandom(q, 5000, 10);
+        assertTrue(q.usesBuckets());
+
+        q.add(new TestPrioritizable("wide", 500_000));
+        assertFalse(q.usesBuckets(), "A priority above the bucket limit should move the elements to a heap");
+        assertEquals("wide", q.peek().getValue());
+        assertDrainsInOrder(q, 5001);
+    }
+
+    @Test
+    void heapShouldShrinkAfterMigratingFromBuckets() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        addRandom(q, 5000, 10);
+        q.add(new TestPrioritizable("wide", 500_000));
+        assertFalse(q.usesBuckets());
+        assertTrue(q.capacity() >= 5001);
+
+        while (q.poll() != null) {
+        }
+        assertTrue(q.capacity() < 100, "The migrated heap should not keep its migration size as minimum capacity");
+    }
+
+    @Test
+    void largerDensePriorityShouldGrowBuckets() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        addRandom(q, 5000, 10);
+
+        TestPrioritizable t = new TestPrioritizable("above", 12);
+        q.add(t);
+        assertTrue(q.usesBuckets(), "A slightly larger priority should keep the buckets");
+        assertEquals(t, q.poll());
+    }
+
+    @Test
+    void updateShouldWorkInBothRepresentations() {
+        AdaptivePriorityQueue<TestPrioritizable> heapQueue = new AdaptivePriorityQueue<>();
+        TestPrioritizable t7 = new TestPrioritizable("g", 7);
+        TestPrioritizable t2 = new TestPrioritizable("b", 2);
+        heapQueue.add(t7);
+        heapQueue.add(t2);
+        heapQueue.update(t2, 9);
+        assertFalse(heapQueue.usesBuckets());
+        assertEquals(t2, heapQueue.poll());
+        assertEquals(9, t2.getPriority());
+
+        AdaptivePriorityQueue<TestPrioritizable> bucketQueue = new AdaptivePriorityQueue<>();
+        addRandom(bucketQueue, 5000, 10);
+        TestPrioritizable t3 = new TestPrioritizable("c", 3);
+        bucketQueue.add(t3);
+        bucketQueue.update(t3, 40);
+        assertTrue(bucketQueue.usesBuckets());
+        assertEquals(t3, bucketQueue.poll());
+    }
+
+    @Test
+    void updateShouldThrowExceptionWhenElementNotFound() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        q.add(new TestPrioritizable("g", 7));
+
+        Executable updateOperation = () -> q.update(new TestPrioritizable("c", 5), 3);
+
+        assertThrows(NoSuchElementException.class, updateOperation);
+    }
+
+    @Test
+    void queueShouldRejectPrioritiesBelowOne() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+
+        Executable insertZero = () -> q.add(new TestPrioritizable("a", 0));
+
+        assertThrows(IllegalStateException.class, insertZero);
+    }
+
+    @Test
+    void iteratorShouldIterateAllElements() {
+        AdaptivePriorityQueue<TestPrioritizable> q = new AdaptivePriorityQueue<>();
+        addRandom(q, 100, 1000);
+
+        int iteratedValues = 0;
+        for (Iterator<TestPrioritizable> iterator = q.iterator(); iterator.hasNext(); iterator.next()) {
+            iteratedValues++;
+        }
+        assertEquals(100, iteratedValues);
+    }
+
+    private static void addRandom(AdaptivePriorityQueue<TestPrioritizable> q, int count, int maxPriority) {
+        Random random = new Random();
+        for (int i = 0; i < count; i++) {
+            q.add(new TestPrioritizable(String.valueOf(i), random.nextInt(maxPriority) + 1));
+        }
+    }
+
+    private static void assertDrainsInOrder(AdaptivePriorityQueue<TestPrioritizable> q, int expectedSize) {
+        assertEquals(expectedSize, q.size());
+        List<Integer> retrieved = new ArrayList<>();
+        while (q.peek() != null) {
+            retrieved.add(q.poll().getPriority());
+        }
+
+        List<Integer> sorted = new ArrayList<>(retrieved);
+        sorted.sort(Collections.reverseOrder());
+        assertEquals(sorted, retrieved);
+        assertEquals(expectedSize, retrieved.size());
+    }
+}
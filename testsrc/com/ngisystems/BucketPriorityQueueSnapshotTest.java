@@ -0,0 +1,116 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketPriorityQueueSnapshotTest {
+
+    /**
+     * Writes only the value, the priority is restored from the bucket the element is stored in.
+     */
+    private static final ElementCodec<TestPrioritizable> VALUE_CODEC = new ElementCodec<TestPrioritizable>() {
+        @Override
+        public void write(TestPrioritizable element, DataOutput out) throws IOException {
+            out.writeUTF(element.getValue());
+        }
+
+        @Override
+        public TestPrioritizable read(DataInput in) throws IOException {
+            return new TestPrioritizable(in.readUTF(), 0);
+        }
+    };
+
+    @Test
+    void snapshotShouldRestoreAllElementsInOrder() throws IOException {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        new Random()
+                .ints(200, 1, 10)
+                .forEach(p -> q.add(new TestPrioritizable(String.valueOf(p), p)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        q.writeSnapshot(out, VALUE_CODEC);
+        BucketsPriorityQueue<TestPrioritizable> restored =
+                BucketsPriorityQueue.readSnapshot(new ByteArrayInputStream(out.toByteArray()), VALUE_CODEC);
+
+        while (q.peek() != null) {
+            TestPrioritizable expected = q.poll();
+            TestPrioritizable actual = restored.poll();
+            assertEquals(expected, actual);
+            assertEquals(expected.getPriority(), actual.getPriority(), "Priority should be restored from the bucket");
+        }
+        assertNull(restored.poll(), "Restored queue should hold the same number of elements");
+    }
+
+    @Test
+    void snapshotsWrittenBackToBackShouldBeReadFromOneStream() throws IOException {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        q.add(new TestPrioritizable("a", 3));
+        q.add(new TestPrioritizable("b", 7));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        q.writeSnapshot(out, VALUE_CODEC);
+        q.writeSnapshot(out, VALUE_CODEC);
+
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+        BucketsPriorityQueue<TestPrioritizable> first = BucketsPriorityQueue.readSnapshot(in, VALUE_CODEC);
+        BucketsPriorityQueue<TestPrioritizable> second = BucketsPriorityQueue.readSnapshot(in, VALUE_CODEC);
+        assertEquals(-1, in.read(), "Reading should stop right after each snapshot");
+        assertEquals(2, first.size());
+        assertEquals("b", second.poll().getValue());
+        assertEquals("a", second.poll().getValue());
+    }
+
+    @Test
+    void snapshotShouldRoundTripThroughFileChannel() throws IOException {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        TestPrioritizable t7 = new TestPrioritizable("g", 7);
+        TestPrioritizable t2 = new TestPrioritizable("b", 2);
+        q.add(t2);
+        q.add(t7);
+
+        Path file = Files.createTempFile("buckets", ".snapshot");
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                q.writeSnapshot(channel, VALUE_CODEC);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                BucketsPriorityQueue<TestPrioritizable> restored = BucketsPriorityQueue.readSnapshot(channel, VALUE_CODEC);
+                assertEquals(channel.size(), channel.position(), "Reading should stop right after the snapshot");
+
+                assertEquals(t7, restored.poll());
+                assertEquals(t2, restored.poll());
+                assertNull(restored.poll());
+
+                Executable insertLarger = () -> restored.add(new TestPrioritizable("k", 11));
+                assertThrows(IllegalStateException.class, insertLarger, "Maximum priority should be restored");
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void readSnapshotShouldRejectHeapSnapshot() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HeapPriorityQueue<TestPrioritizable>().writeSnapshot(out, VALUE_CODEC);
+
+        Executable readHeap = () -> BucketsPriorityQueue.readSnapshot(
+                new ByteArrayInputStream(out.toByteArray()), VALUE_CODEC);
+
+        assertThrows(IOException.class, readHeap, "A snapshot written by another queue type should be rejected");
+    }
+}
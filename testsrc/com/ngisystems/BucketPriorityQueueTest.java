@@ -139,4 +139,365 @@ class BucketPriorityQueueTest {
 
         assertEquals(values, retrievedValues);
     }
+
+    @Test
+    void bucketsShouldShrinkAfterBeingDrained() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        for (int i = 0; i < 10_000; i++) {
+            q.add(new TestPrioritizable(String.valueOf(i), i % 10 + 1));
+        }
+        int burstCapacity = q.capacity();
+
+        for (int i = 0; i < 9_990; i++) {
+            q.poll();
+        }
+
+        assertTrue(q.capacity() < burstCapacity / 10, "Bucket capacity should shrink once the queue is drained");
+        assertEquals(1, q.peek().getPriority());
+    }
+
+    @Test
+    void trimToSizeShouldReleaseEmptyBuckets() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10, 8);
+        assertEquals(0, q.capacity(), "Buckets should not allocate storage before the first insertion");
+
+        TestPrioritizable t3 = new TestPrioritizable("c", 3);
+        q.add(new TestPrioritizable("g", 7));
+        q.add(t3);
+        q.poll();
+
+        q.trimToSize();
+        assertEquals(1, q.capacity(), "trimToSize should release empty buckets and unused slots");
+        assertEquals(t3, q.poll());
+        assertNull(q.poll());
+
+        q.add(t3);
+        assertEquals(t3, q.peek());
+    }
+
+    @Test
+    void pollOnEmptyQueueShouldNotCorruptIterator() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        q.poll();
+        q.add(new TestPrioritizable("a", 1));
+
+        Iterator<TestPrioritizable> iterator = q.iterator();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    void weightedPollShouldServePrioritiesInProportionToTheirWeights() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(3);
+        q.setWeights(new int[]{1, 2, 3});
+        for (int i = 0; i < 60; i++) {
+            q.add(new TestPrioritizable("a" + i, 1));
+            q.add(new TestPrioritizable("b" + i, 2));
+            q.add(new TestPrioritizable("c" + i, 3));
+        }
+
+        List<Integer> firstRound = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            firstRound.add(q.poll().getPriority());
+        }
+        assertEquals(Arrays.asList(3, 3, 3, 2, 2, 1), firstRound, "A round should follow the weights from highest " +
+                "to lowest priority");
+
+        int[] served = new int[4];
+        for (int i = 0; i < 60; i++) {
+            served[q.poll().getPriority()]++;
+        }
+        assertEquals(10, served[1]);
+        assertEquals(20, served[2]);
+        assertEquals(30, served[3]);
+    }
+
+    @Test
+    void weightedPollShouldSkipEmptyPrioritiesAndDrainTheQueue() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(100);
+        int[] weights = new int[100];
+        Arrays.fill(weights, 2);
+        q.setWeights(weights);
+        TestPrioritizable t1 = new TestPrioritizable("a", 1);
+        q.add(t1);
+        for (int i = 0; i < 10; i++) {
+            q.add(new TestPrioritizable("z" + i, 100));
+        }
+
+        List<TestPrioritizable> retrieved = new ArrayList<>();
+        while (q.peek() != null) {
+            TestPrioritizable peeked = q.peek();
+            assertEquals(peeked, q.poll(), "Peek should return the element poll is about to take");
+            retrieved.add(peeked);
+        }
+
+        assertEquals(11, retrieved.size());
+        assertEquals(t1, retrieved.get(2), "The lowest priority should be served after its higher priority share");
+    }
+
+    @Test
+    void clearingWeightsShouldRestoreStrictPriorityOrder() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(2);
+        q.setWeights(new int[]{1, 1});
+        q.add(new TestPrioritizable("a", 1));
+        q.add(new TestPrioritizable("b", 1));
+        q.add(new TestPrioritizable("c", 2));
+        q.add(new TestPrioritizable("d", 2));
+        assertEquals(2, q.poll().getPriority());
+        assertEquals(1, q.poll().getPriority());
+
+        q.setWeights(null);
+        assertEquals(2, q.poll().getPriority());
+        assertEquals(1, q.poll().getPriority());
+    }
+
+    @Test
+    void setWeightsShouldRejectInvalidWeights() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(3);
+
+        assertThrows(IllegalArgumentException.class, () -> q.setWeights(new int[]{1, 2}),
+                "There should be one weight per priority");
+        assertThrows(IllegalArgumentException.class, () -> q.setWeights(new int[]{1, 0, 1}),
+                "Weights should be positive");
+    }
+
+    @Test
+    void fullQueueShouldEvictLowestPriorityForHigherPriority() {
+        List<TestPrioritizable> shed = new ArrayList<>();
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10, 5, 3, shed::add);
+        TestPrioritizable t2 = new TestPrioritizable("b", 2);
+        TestPrioritizable t4 = new TestPrioritizable("d", 4);
+        TestPrioritizable t5 = new TestPrioritizable("e", 5);
+        TestPrioritizable t8 = new TestPrioritizable("h", 8);
+        q.add(t2);
+        q.add(t4);
+        q.add(t5);
+
+        assertTrue(q.offer(t8));
+        assertEquals(Collections.singletonList(t2), shed, "The lowest priority element should be evicted");
+        assertEquals(3, q.size());
+
+        assertTrue(q.offer(new TestPrioritizable("i", 9)));
+        assertEquals(Arrays.asList(t2, t4), shed, "The next lowest priority should be tracked after an eviction");
+    }
+
+    @Test
+    void fullQueueShouldRejectElementsAtOrBelowLowestPriority() {
+        List<TestPrioritizable> shed = new ArrayList<>();
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10, 5, 2, shed::add);
+        q.add(new TestPrioritizable("c", 3));
+        q.add(new TestPrioritizable("g", 7));
+
+        assertFalse(q.offer(new TestPrioritizable("x", 3)), "Elements at the lowest priority should be rejected");
+        assertFalse(q.offer(new TestPrioritizable("y", 1)), "Elements below the lowest priority should be rejected");
+
+        Executable addOperation = () -> q.add(new TestPrioritizable("z", 2));
+        assertThrows(IllegalStateException.class, addOperation, "Add should throw if the element is rejected");
+
+        assertTrue(shed.isEmpty(), "Rejected elements should not be passed to the shed handler");
+        assertEquals(2, q.size());
+    }
+
+    @Test
+    void boundedQueueShouldAcceptElementsAfterPolling() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10, 5, 1, null);
+        TestPrioritizable t3 = new TestPrioritizable("c", 3);
+        q.add(t3);
+        assertFalse(q.offer(new TestPrioritizable("a", 1)));
+        assertEquals(t3, q.poll());
+
+        TestPrioritizable t1 = new TestPrioritizable("a", 1);
+        assertTrue(q.offer(t1), "Polling should make room for new elements");
+        assertTrue(q.offer(new TestPrioritizable("b", 2)), "Higher priority should evict without a shed handler");
+        assertEquals(2, q.poll().getPriority());
+        assertNull(q.poll());
+    }
+
+    @Test
+    void shedHandlerShouldBeCalledOutsideTheQueueLock() {
+        List<Boolean> lockHeld = new ArrayList<>();
+        BucketsPriorityQueue<TestPrioritizable>[] holder = new BucketsPriorityQueue[1];
+        holder[0] = new BucketsPriorityQueue<>(10, 5, 1, e -> lockHeld.add(Thread.holdsLock(holder[0])));
+        holder[0].add(new TestPrioritizable("a", 1));
+        holder[0].add(new TestPrioritizable("b", 2));
+
+        assertEquals(Collections.singletonList(false), lockHeld);
+    }
+
+    @Test
+    void ageAllShouldRaiseEveryPriorityAndFoldIntoTheTop() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        TestPrioritizable t2 = new TestPrioritizable("b", 2);
+        TestPrioritizable t5 = new TestPrioritizable("e", 5);
+        TestPrioritizable t8 = new TestPrioritizable("h", 8);
+        TestPrioritizable t10 = new TestPrioritizable("j", 10);
+        q.add(t2);
+        q.add(t5);
+        q.add(t8);
+        q.add(t10);
+
+        q.ageAll(4);
+        TestPrioritizable t6 = new TestPrioritizable("f", 6);
+        q.add(t6);
+
+        Set<TestPrioritizable> top = new HashSet<>(Arrays.asList(q.poll(), q.poll()));
+        assertEquals(new HashSet<>(Arrays.asList(t8, t10)), top, "Elements aged past the maximum priority " +
+                "should be folded into the top bucket");
+        assertEquals(10, t8.getPriority(), "Polled elements should report their aged priority");
+
+        assertEquals(t5, q.poll());
+        assertEquals(9, t5.getPriority());
+
+        TestPrioritizable next = q.poll();
+        assertTrue(next == t2 || next == t6);
+        assertEquals(6, next.getPriority());
+        assertEquals(6, q.poll().getPriority());
+        assertNull(q.poll());
+    }
+
+    @Test
+    void updateShouldFindAgedElements() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        TestPrioritizable t2 = new TestPrioritizable("b", 2);
+        TestPrioritizable t9 = new TestPrioritizable("i", 9);
+        q.add(t2);
+        q.add(t9);
+        q.ageAll(3);
+        q.ageAll(3);
+
+        q.update(new TestPrioritizable("b", 2), 1);
+        assertEquals(t9, q.poll());
+        assertEquals(10, t9.getPriority());
+        assertEquals(1, q.poll().getPriority(), "The aged element should have been moved to its new priority");
+    }
+
+    @Test
+    void iteratorShouldReportAgedPriorities() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        q.add(new TestPrioritizable("a", 1));
+        q.add(new TestPrioritizable("c", 3));
+        q.ageAll(2);
+
+        Iterator<TestPrioritizable> iterator = q.iterator();
+        assertEquals(5, iterator.next().getPriority());
+        assertEquals(3, iterator.next().getPriority());
+        assertEquals(5, q.peek().getPriority());
+    }
+
+    @Test
+    void agingShouldKeepTheLowestPriorityForShedding() {
+        List<TestPrioritizable> shed = new ArrayList<>();
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10, 5, 2, shed::add);
+        TestPrioritizable t1 = new TestPrioritizable("a", 1);
+        q.add(t1);
+        q.add(new TestPrioritizable("d", 4));
+        q.ageAll(2);
+
+        assertFalse(q.offer(new TestPrioritizable("x", 3)), "The aged lowest priority should be used for rejection");
+        assertTrue(q.offer(new TestPrioritizable("y", 4)));
+        assertEquals(Collections.singletonList(t1), shed);
+        assertEquals(3, t1.getPriority(), "Evicted elements should report their aged priority");
+    }
+
+    @Test
+    void ageAllShouldRejectNegativeDelta() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        assertThrows(IllegalArgumentException.class, () -> q.ageAll(-1));
+    }
+
+    @Test
+    void pollInRangeShouldReturnHighestPriorityOfTheBand() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(100);
+        q.add(new TestPrioritizable("a", 95));
+        q.add(new TestPrioritizable("b", 50));
+        q.add(new TestPrioritizable("c", 10));
+        q.add(new TestPrioritizable("d", 45));
+
+        assertEquals("b", q.poll(20, 60).getValue());
+        assertEquals("d", q.poll(20, 60).getValue());
+        assertNull(q.poll(20, 60), "Poll should return null if the band is empty.");
+        assertEquals(2, q.size());
+        assertEquals("a", q.poll().getValue(), "Polling a band should keep the highest priority up to date");
+        assertEquals("c", q.poll(1, 1000).getValue(), "The band should be clipped to the queue priorities");
+        assertNull(q.poll());
+    }
+
+    @Test
+    void pollInRangeShouldUpdateTopWhenTheTopBucketEmpties() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        q.add(new TestPrioritizable("a", 9));
+        q.add(new TestPrioritizable("b", 2));
+
+        assertEquals("a", q.poll(5, 10).getValue());
+        assertEquals("b", q.peek().getValue());
+        assertEquals("b", q.poll().getValue());
+    }
+
+    @Test
+    void drainRangeShouldRemoveBandFromHighestToLowest() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(100);
+        for (int p = 1; p <= 100; p += 3) {
+            q.add(new TestPrioritizable("p" + p, p));
+        }
+        int initialSize = q.size();
+
+        List<TestPrioritizable> drained = new ArrayList<>();
+        assertEquals(7, q.drainRange(80, 100, drained, Integer.MAX_VALUE));
+        List<Integer> priorities = new ArrayList<>();
+        drained.forEach(e -> priorities.add(e.getPriority()));
+        assertEquals(Arrays.asList(100, 97, 94, 91, 88, 85, 82), priorities);
+        assertEquals(initialSize - 7, q.size());
+        assertEquals(0, q.countRange(80, 100));
+        assertEquals(79, q.peek().getPriority());
+
+        drained.clear();
+        assertEquals(2, q.drainRange(1, 20, drained, 2));
+        assertEquals(19, drained.get(0).getPriority());
+        assertEquals(16, drained.get(1).getPriority());
+    }
+
+    @Test
+    void countRangeShouldCountOnlyTheBand() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        q.add(new TestPrioritizable("a", 1));
+        q.add(new TestPrioritizable("b", 3));
+        q.add(new TestPrioritizable("c", 3));
+        q.add(new TestPrioritizable("d", 7));
+
+        assertEquals(2, q.countRange(2, 6));
+        assertEquals(4, q.countRange(1, 10));
+        assertEquals(3, q.countRange(-5, 4));
+        assertEquals(0, q.countRange(8, 20));
+        assertEquals(0, q.countRange(11, 20));
+        assertThrows(IllegalArgumentException.class, () -> q.countRange(5, 4));
+    }
+
+    @Test
+    void rangeIteratorShouldReturnBandInPriorityOrder() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        q.add(new TestPrioritizable("a", 1));
+        q.add(new TestPrioritizable("b", 4));
+        q.add(new TestPrioritizable("c", 6));
+        q.add(new TestPrioritizable("d", 9));
+
+        List<String> values = new ArrayList<>();
+        q.iterator(3, 8).forEachRemaining(e -> values.add(e.getValue()));
+        assertEquals(Arrays.asList("c", "b"), values);
+        assertEquals(4, q.size(), "The range iterator should not remove elements");
+    }
+
+    @Test
+    void rangeOperationsShouldUseAgedPriorities() {
+        BucketsPriorityQueue<TestPrioritizable> q = new BucketsPriorityQueue<>(10);
+        TestPrioritizable t2 = new TestPrioritizable("a", 2);
+        q.add(t2);
+        q.add(new TestPrioritizable("b", 8));
+        q.ageAll(3);
+
+        assertEquals(0, q.countRange(1, 4));
+        assertEquals(5, q.iterator(5, 5).next().getPriority());
+        assertEquals(t2, q.poll(1, 6));
+        assertEquals(5, t2.getPriority());
+    }
 }
@@ -0,0 +1,71 @@
+package com.ngisystems;
+
+import java.util.*;
+
+/**
+ * Measures the memory {@link HeapPriorityQueue} and {@link BucketsPriorityQueue} keep after a burst drains.
+ *
+ * <p>Every run adds the burst, polls until only the backlog is left, then calls {@code trimToSize()}. It prints
+ * the allocated element slots at each step, and the reference array memory they take with 4 byte compressed
+ * references. The heap used by the queue is also printed, measured after a garbage collection.
+ *
+ * <p>Usage: {@code BurstDrainBenchmark [burst] [backlog] [priorities]}, a burst of 2,000,000 elements drained to
+ * 1000 and 1000 priorities for the buckets by default.
+ */
+class BurstDrainBenchmark {
+
+    private interface Capacity {
+        int get();
+    }
+
+    public static void main(String[] args) {
+        int burst = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int backlog = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int priorities = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        Random random = new Random(1);
+        TestPrioritizable[] elements = new TestPrioritizable[burst];
+        for (int i = 0; i < burst; i++) {
+            elements[i] = new TestPrioritizable("e", random.nextInt(priorities) + 1);
+        }
+
+        HeapPriorityQueue<TestPrioritizable> heap = new HeapPriorityQueue<>();
+        run("heap", heap, heap::capacity, heap::trimToSize, elements, backlog);
+        heap = null;
+
+        BucketsPriorityQueue<TestPrioritizable> buckets = new BucketsPriorityQueue<>(priorities);
+        run("buckets, " + priorities + " priorities", buckets, buckets::capacity, buckets::trimToSize,
+                elements, backlog);
+    }
+
+    private static void run(String name, PrioritizedQueue<TestPrioritizable> q, Capacity capacity, Runnable trim,
+                            TestPrioritizable[] elements, int backlog) {
+        System.out.println(name);
+        long baseline = usedMemory();
+        for (TestPrioritizable element : elements) {
+            q.add(element);
+        }
+        report("after the burst", capacity.get(), usedMemory() - baseline);
+
+        for (int i = elements.length; i > backlog; i--) {
+            q.poll();
+        }
+        report("after draining to " + backlog, capacity.get(), usedMemory() - baseline);
+
+        trim.run();
+        report("after trimToSize", capacity.get(), usedMemory() - baseline);
+    }
+
+    private static void report(String step, int slots, long used) {
+        System.out.printf("  %-24s slots=%,10d arrays=%,8d KB used=%,8d KB%n", step, slots, 4L * slots / 1024,
+                used / 1024);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,79 @@
+package com.ngisystems;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Measures the throughput of a plain synchronized {@link HeapPriorityQueue} and of the same queue behind a
+ * {@link FlatCombiningPriorityQueue} with 1 to 64 threads.
+ *
+ * <p>Every thread runs add and poll pairs on a queue that starts with {@value #PREFILL} elements. The total number
+ * of operations is split evenly across the threads and all the threads are released at once. Contention only shows
+ * up with several cores, so run it on a many-core host.
+ *
+ * <p>Usage: {@code FlatCombiningBenchmark [operations] [rounds] [threads,...]}, 2,000,000 operations, 2 rounds and
+ * 1,2,4,8,16,32,64 threads by default. The first round includes JIT warm up.
+ */
+class FlatCombiningBenchmark {
+
+    private static final int PREFILL = 10_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int[] threadCounts = args.length > 2
+                ? Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1, 2, 4, 8, 16, 32, 64};
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("round " + round);
+            for (int threads : threadCounts) {
+                double plain = run(HeapPriorityQueue::new, threads, operations);
+                double combining = run(() -> new FlatCombiningPriorityQueue<>(new HeapPriorityQueue<Integer>()),
+                        threads, operations);
+                System.out.printf("  threads=%2d synchronized=%6.2f Mops/s flat-combining=%6.2f Mops/s%n",
+                        threads, plain, combining);
+            }
+        }
+    }
+
+    /**
+     * Returns the throughput in millions of operations per second, an add and a poll count as two operations.
+     */
+    private static double run(Supplier<PrioritizedQueue<Integer>> factory, int threads, int operations)
+            throws InterruptedException {
+        PrioritizedQueue<Integer> q = factory.get();
+        for (int i = 0; i < PREFILL; i++) {
+            q.add(i);
+        }
+        int pairsPerThread = operations / 2 / threads;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                Random random = new Random();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < pairsPerThread; i++) {
+                    q.add(random.nextInt(1_000_000));
+                    q.poll();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        return 2.0 * pairsPerThread * threads / seconds / 1e6;
+    }
+}
@@ -0,0 +1,87 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatCombiningPriorityQueueTest {
+
+    @Test
+    void pollShouldReturnNullIfQueueEmpty() {
+        FlatCombiningPriorityQueue<Integer> q = new FlatCombiningPriorityQueue<>(new HeapPriorityQueue<Integer>());
+        assertNull(q.poll(), "Poll should return null if the queue is empty.");
+        assertNull(q.peek(), "Peek should return null if the queue is empty.");
+    }
+
+    @Test
+    void queueShouldAlwaysReturnHighestPriorityElement() {
+        FlatCombiningPriorityQueue<Integer> q = new FlatCombiningPriorityQueue<>(new HeapPriorityQueue<Integer>());
+
+        List<Integer> values = new ArrayList<>();
+        new Random()
+                .ints(100, 1, 1000)
+                .forEach(values::add);
+        values.forEach(q::add);
+        assertEquals(100, q.size());
+
+        values.sort(Collections.reverseOrder());
+        List<Integer> retrievedValues = new ArrayList<>();
+        while (q.peek() != null) {
+            retrievedValues.add(q.poll());
+        }
+        assertEquals(values, retrievedValues);
+    }
+
+    @Test
+    void failuresShouldBeThrownToTheCallingThread() {
+        FlatCombiningPriorityQueue<TestPrioritizable> q =
+                new FlatCombiningPriorityQueue<>(new BucketsPriorityQueue<>(10));
+
+        Executable insertLarger = () -> q.add(new TestPrioritizable("b", 11));
+
+        assertThrows(IllegalStateException.class, insertLarger);
+        q.add(new TestPrioritizable("a", 3));
+        assertEquals(3, q.poll().getPriority());
+    }
+
+    @Test
+    void concurrentOperationsShouldNotLoseElements() throws InterruptedException {
+        FlatCombiningPriorityQueue<Integer> q = new FlatCombiningPriorityQueue<>(new HeapPriorityQueue<Integer>());
+        int threads = 8;
+        int perThread = 5000;
+        Collection<Integer> polled = new ConcurrentLinkedQueue<>();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * perThread;
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    q.add(offset + i);
+                    if (i % 2 == 1) {
+                        polled.add(q.poll());
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Integer previous = null;
+        while (q.peek() != null) {
+            Integer next = q.poll();
+            assertTrue(previous == null || previous >= next, "Remaining elements should come out in order");
+            polled.add(next);
+            previous = next;
+        }
+
+        Set<Integer> distinct = new HashSet<>(polled);
+        assertEquals(threads * perThread, polled.size());
+        assertEquals(threads * perThread, distinct.size(), "Every element should be returned exactly once");
+    }
+}
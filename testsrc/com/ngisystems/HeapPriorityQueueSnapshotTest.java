@@ -0,0 +1,185 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeapPriorityQueueSnapshotTest {
+
+    private static final ElementCodec<Integer> INT_CODEC = new ElementCodec<Integer>() {
+        @Override
+        public void write(Integer element, DataOutput out) throws IOException {
+            out.writeInt(element);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    @Test
+    void snapshotShouldRestoreAllElementsInOrder() throws IOException {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        new Random()
+                .ints(1000, 1, 1000)
+                .forEach(q::add);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        q.writeSnapshot(out, INT_CODEC);
+        HeapPriorityQueue<Integer> restored =
+                HeapPriorityQueue.readSnapshot(new ByteArrayInputStream(out.toByteArray()), INT_CODEC);
+
+        while (q.peek() != null) {
+            assertEquals(q.poll(), restored.poll());
+        }
+        assertNull(restored.poll(), "Restored queue should hold the same number of elements");
+    }
+
+    @Test
+    void snapshotShouldRoundTripThroughFileChannel() throws IOException {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        for (int i = 1; i <= 100; i++) {
+            q.add(i);
+        }
+
+        Path file = Files.createTempFile("heap", ".snapshot");
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                q.writeSnapshot(channel, INT_CODEC);
+                q.writeSnapshot(channel, INT_CODEC);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                HeapPriorityQueue<Integer> first = HeapPriorityQueue.readSnapshot(channel, INT_CODEC);
+                HeapPriorityQueue<Integer> second = HeapPriorityQueue.readSnapshot(channel, INT_CODEC);
+                assertEquals(channel.size(), channel.position(), "Reading should stop right after each snapshot");
+
+                for (int i = 100; i >= 1; i--) {
+                    assertEquals((Integer) i, first.poll());
+                    assertEquals((Integer) i, second.poll());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void restoredQueueShouldShrinkAfterBeingDrained() throws IOException {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        for (int i = 0; i < 10_000; i++) {
+            q.add(i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        q.writeSnapshot(out, INT_CODEC);
+
+        HeapPriorityQueue<Integer> restored =
+                HeapPriorityQueue.readSnapshot(new ByteArrayInputStream(out.toByteArray()), INT_CODEC);
+        assertEquals(10_000, restored.capacity());
+        while (restored.poll() != null) {
+        }
+        restored.trimToSize();
+        assertEquals(10, restored.capacity(), "The snapshot size should not become the minimum capacity");
+    }
+
+    @Test
+    void snapshotsWrittenBackToBackShouldBeReadFromOneStream() throws IOException {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        for (int i = 1; i <= 100; i++) {
+            q.add(i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        q.writeSnapshot(out, INT_CODEC);
+        q.writeSnapshot(out, INT_CODEC);
+        new DataOutputStream(out).writeInt(42);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(out.toByteArray())));
+        HeapPriorityQueue<Integer> first = HeapPriorityQueue.readSnapshot(in, INT_CODEC);
+        HeapPriorityQueue<Integer> second = HeapPriorityQueue.readSnapshot(in, INT_CODEC);
+        assertEquals(42, in.readInt(), "Reading should stop right after each snapshot");
+        assertEquals(100, first.size());
+        assertEquals(100, second.size());
+        assertEquals((Integer) 100, second.poll());
+    }
+
+    @Test
+    void unbufferedStreamShouldBeReadInWholeChunks() throws IOException {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        for (int i = 0; i < 100_000; i++) {
+            q.add(i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        q.writeSnapshot(out, INT_CODEC);
+        new DataOutputStream(out).writeInt(42);
+
+        int[] reads = new int[1];
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(out.toByteArray())) {
+            @Override
+            public int read() throws IOException {
+                reads[0]++;
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                reads[0]++;
+                return super.read(b, off, len);
+            }
+        };
+        HeapPriorityQueue<Integer> restored = HeapPriorityQueue.readSnapshot(in, INT_CODEC);
+        assertEquals(100_000, restored.size());
+        assertTrue(reads[0] < 100, "The snapshot took " + reads[0] + " reads");
+        assertEquals(42, new DataInputStream(in).readInt(), "Reading should stop right after the snapshot");
+    }
+
+    @Test
+    void emptyQueueSnapshotShouldBeUsable() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HeapPriorityQueue<Integer>().writeSnapshot(out, INT_CODEC);
+
+        HeapPriorityQueue<Integer> restored =
+                HeapPriorityQueue.readSnapshot(new ByteArrayInputStream(out.toByteArray()), INT_CODEC);
+        assertNull(restored.poll());
+        restored.add(3);
+        assertEquals((Integer) 3, restored.peek());
+    }
+
+    @Test
+    void readSnapshotShouldRejectOtherData() {
+        Executable readGarbage = () -> HeapPriorityQueue.readSnapshot(
+                new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}), INT_CODEC);
+
+        assertThrows(IOException.class, readGarbage, "Data without the snapshot header should be rejected");
+    }
+
+    @Test
+    void readSnapshotShouldRejectCorruptSize() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HeapPriorityQueue<Integer>().writeSnapshot(out, INT_CODEC);
+        byte[] bytes = out.toByteArray();
+        //the size is the first int of the body, after the 6 byte header and the chunk length
+        ByteBuffer.wrap(bytes).putInt(10, Integer.MAX_VALUE);
+
+        Executable readCorrupt = () -> HeapPriorityQueue.readSnapshot(new ByteArrayInputStream(bytes), INT_CODEC);
+
+        assertThrows(IOException.class, readCorrupt, "A size that overflows the array should be rejected");
+    }
+}
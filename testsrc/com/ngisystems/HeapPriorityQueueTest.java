@@ -127,4 +127,55 @@ class HeapPriorityQueueTest {
 
         assertEquals(retrievedValues, values);
     }
+
+    @Test
+    void queueShouldShrinkAfterBeingDrained() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>(16);
+        new Random()
+                .ints(10_000, 1, 1000)
+                .forEach(q::add);
+        int burstCapacity = q.capacity();
+
+        for (int i = 0; i < 9_990; i++) {
+            q.poll();
+        }
+
+        assertTrue(q.capacity() < burstCapacity / 100, "Capacity should shrink once the queue is drained");
+        assertTrue(q.capacity() >= 16, "Capacity should not shrink below the initial capacity");
+
+        List<Integer> retrievedValues = new ArrayList<>();
+        while (q.peek() != null) {
+            retrievedValues.add(q.poll());
+        }
+        List<Integer> sortedValues = new ArrayList<>(retrievedValues);
+        sortedValues.sort(Collections.reverseOrder());
+        assertEquals(sortedValues, retrievedValues);
+    }
+
+    @Test
+    void trimToSizeShouldKeepElementsAndInitialCapacity() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>(4);
+        for (int i = 1; i <= 100; i++) {
+            q.add(i);
+        }
+        for (int i = 0; i < 60; i++) {
+            q.poll();
+        }
+
+        q.trimToSize();
+        assertEquals(40, q.capacity(), "trimToSize should release the unused capacity");
+        assertEquals((Integer) 40, q.poll());
+
+        while (q.poll() != null) ;
+        q.trimToSize();
+        assertEquals(4, q.capacity(), "trimToSize should not go below the initial capacity");
+
+        q.add(5);
+        assertEquals((Integer) 5, q.peek());
+    }
+
+    @Test
+    void constructorShouldRejectInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new HeapPriorityQueue<Integer>(0));
+    }
 }
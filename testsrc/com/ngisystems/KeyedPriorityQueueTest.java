@@ -0,0 +1,136 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedPriorityQueueTest {
+
+    @Test
+    void pollShouldReturnNullIfQueueEmpty() {
+        KeyedPriorityQueue<String, Integer> q = new KeyedPriorityQueue<>();
+        assertNull(q.poll(), "Poll should return null if the queue is empty.");
+        assertNull(q.poll("a"), "Poll should return null if the key has no elements.");
+    }
+
+    @Test
+    void queueShouldAlwaysReturnHighestPriorityElementAcrossKeys() {
+        KeyedPriorityQueue<Integer, Integer> q = new KeyedPriorityQueue<>();
+
+        List<Integer> values = new ArrayList<>();
+        Random random = new Random();
+        random.ints(2000, 1, 1000)
+                .forEach(v -> {
+                    values.add(v);
+                    q.add(random.nextInt(100), v);
+                });
+
+        values.sort(Collections.reverseOrder());
+
+        List<Integer> retrievedValues = new ArrayList<>();
+        while (q.peek() != null) {
+            retrievedValues.add(q.poll());
+        }
+
+        assertEquals(values, retrievedValues);
+        assertEquals(0, q.size());
+        assertEquals(0, q.keyCount(), "Empty keys should be pruned");
+    }
+
+    @Test
+    void perKeyOperationsShouldOnlyAffectTheirKey() {
+        KeyedPriorityQueue<String, Integer> q = new KeyedPriorityQueue<>();
+        q.add("a", 5);
+        q.add("a", 9);
+        q.add("b", 7);
+
+        assertEquals(2, q.size("a"));
+        assertEquals(1, q.size("b"));
+        assertEquals(3, q.size());
+
+        assertEquals((Integer) 7, q.peek("b"));
+        assertEquals((Integer) 9, q.poll("a"));
+        assertEquals((Integer) 7, q.peek(), "The global head should move to the next best key");
+
+        assertEquals((Integer) 7, q.poll("b"));
+        assertEquals(0, q.size("b"));
+        assertEquals(1, q.keyCount(), "A key should be pruned once its queue is empty");
+        assertEquals((Integer) 5, q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    void updateShouldMoveTheGlobalHead() {
+        KeyedPriorityQueue<String, Integer> q = new KeyedPriorityQueue<>();
+        q.add("a", 5);
+        q.add("b", 7);
+
+        q.update("a", 5, 10);
+        assertEquals((Integer) 10, q.poll());
+
+        q.update("b", 7, 1);
+        assertEquals((Integer) 1, q.peek());
+    }
+
+    /**
+     * An element whose priority can be changed while it is queued.
+     */
+    private static class MutableElement implements Comparable<MutableElement> {
+        int priority;
+
+        MutableElement(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(MutableElement o) {
+            return Integer.compare(priority, o.priority);
+        }
+    }
+
+    @Test
+    void updateShouldReplayWhenTheHeadIsRaisedInPlace() {
+        KeyedPriorityQueue<String, MutableElement> q = new KeyedPriorityQueue<>();
+        MutableElement a = new MutableElement(5);
+        MutableElement b = new MutableElement(10);
+        q.add("A", a);
+        q.add("B", b);
+        assertSame(b, q.peek());
+
+        a.priority = 20;
+        q.update("A", a, a);
+
+        assertSame(a, q.peek(), "The raised head should win even though it is the same element");
+        assertSame(a, q.poll());
+        assertSame(b, q.poll());
+    }
+
+    @Test
+    void updateShouldThrowExceptionWhenElementNotFound() {
+        KeyedPriorityQueue<String, Integer> q = new KeyedPriorityQueue<>();
+        q.add("a", 5);
+
+        Executable missingElement = () -> q.update("a", 3, 4);
+        Executable missingKey = () -> q.update("b", 5, 4);
+
+        assertThrows(NoSuchElementException.class, missingElement);
+        assertThrows(NoSuchElementException.class, missingKey);
+    }
+
+    @Test
+    void prunedKeysShouldBeReusable() {
+        KeyedPriorityQueue<Integer, Integer> q = new KeyedPriorityQueue<>();
+        for (int round = 0; round < 3; round++) {
+            for (int key = 0; key < 50; key++) {
+                q.add(key, key);
+            }
+            for (int key = 49; key >= 0; key--) {
+                assertEquals((Integer) key, q.poll());
+            }
+            assertEquals(0, q.keyCount());
+        }
+    }
+}
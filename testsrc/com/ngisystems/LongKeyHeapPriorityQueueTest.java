@@ -0,0 +1,149 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongKeyHeapPriorityQueueTest {
+
+    @Test
+    void pollShouldReturnNullIfQueueEmpty() {
+        LongKeyHeapPriorityQueue<Long> q = new LongKeyHeapPriorityQueue<>(Long::longValue);
+        assertNull(q.poll(), "Poll should return null if the queue is empty.");
+        assertNull(q.peek(), "Peek should return null if the queue is empty.");
+        assertThrows(NoSuchElementException.class, q::peekKey);
+    }
+
+    @Test
+    void queueShouldAlwaysReturnHighestKeyElement() {
+        LongKeyHeapPriorityQueue<Long> q = new LongKeyHeapPriorityQueue<>(Long::longValue);
+
+        List<Long> values = new ArrayList<>();
+        new Random()
+                .longs(1000, Long.MIN_VALUE / 2, Long.MAX_VALUE / 2)
+                .forEach(values::add);
+        values.forEach(q::add);
+        assertEquals(1000, q.size());
+
+        values.sort(Collections.reverseOrder());
+        List<Long> retrievedValues = new ArrayList<>();
+        while (q.peek() != null) {
+            assertEquals(q.peek().longValue(), q.peekKey());
+            retrievedValues.add(q.poll());
+        }
+        assertEquals(values, retrievedValues);
+    }
+
+    @Test
+    void keyShouldBeExtractedOnlyOnInsert() {
+        int[] extractions = {0};
+        LongKeyHeapPriorityQueue<Integer> q = new LongKeyHeapPriorityQueue<>(e -> {
+            extractions[0]++;
+            return e;
+        });
+        for (int i = 0; i < 100; i++) {
+            q.add(i);
+        }
+        while (q.poll() != null) {
+        }
+        assertEquals(100, extractions[0]);
+    }
+
+    @Test
+    void byPriorityShouldOrderByPrioritizablePriority() {
+        LongKeyHeapPriorityQueue<TestPrioritizable> q = LongKeyHeapPriorityQueue.byPriority();
+        q.add(new TestPrioritizable("z", 1));
+        q.add(new TestPrioritizable("a", 5));
+        q.add(new TestPrioritizable("m", 3));
+
+        assertEquals("a", q.poll().getValue());
+        assertEquals("m", q.poll().getValue());
+        assertEquals("z", q.poll().getValue());
+    }
+
+    @Test
+    void updateShouldRefreshTheKeyOfAnElementChangedInPlace() {
+        LongKeyHeapPriorityQueue<TestPrioritizable> q = LongKeyHeapPriorityQueue.byPriority();
+        TestPrioritizable low = new TestPrioritizable("low", 1);
+        q.add(low);
+        q.add(new TestPrioritizable("mid", 5));
+        q.add(new TestPrioritizable("high", 9));
+
+        low.setPriority(10);
+        assertEquals("high", q.peek().getValue(), "The cached key should be used until the element is updated.");
+        q.update(low);
+        assertEquals("low", q.poll().getValue());
+
+        TestPrioritizable high = q.peek();
+        high.setPriority(2);
+        q.update(high);
+        assertEquals("mid", q.poll().getValue());
+        assertEquals("high", q.poll().getValue());
+    }
+
+    @Test
+    void updateShouldReplaceExistingElement() {
+        LongKeyHeapPriorityQueue<Integer> q = new LongKeyHeapPriorityQueue<>(Integer::longValue);
+        q.add(7);
+        q.add(2);
+        q.add(4);
+        q.update(2, 9);
+        q.update(7, 1);
+        assertEquals(Arrays.asList(9, 4, 1), drain(q));
+    }
+
+    @Test
+    void updateShouldThrowExceptionWhenElementNotFound() {
+        LongKeyHeapPriorityQueue<Integer> q = new LongKeyHeapPriorityQueue<>(Integer::longValue);
+        q.add(1);
+
+        Executable updateMissing = () -> q.update(5, 3);
+
+        assertThrows(NoSuchElementException.class, updateMissing);
+        assertEquals(1, q.size());
+    }
+
+    @Test
+    void queueShouldShrinkAfterBeingDrained() {
+        LongKeyHeapPriorityQueue<Integer> q = new LongKeyHeapPriorityQueue<>(Integer::longValue, 4);
+        for (int i = 0; i < 1000; i++) {
+            q.add(i);
+        }
+        assertTrue(q.capacity() >= 1000);
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(1000, q.drainTo(drained, Integer.MAX_VALUE));
+        assertEquals(999, (int) drained.get(0));
+        assertEquals(0, (int) drained.get(999));
+        assertEquals(4, q.capacity());
+    }
+
+    @Test
+    void iteratorShouldReturnSnapshotOfAllElements() {
+        LongKeyHeapPriorityQueue<Integer> q = new LongKeyHeapPriorityQueue<>(Integer::longValue);
+        q.add(3);
+        q.add(1);
+        q.add(2);
+
+        Iterator<Integer> iterator = q.iterator();
+        q.poll();
+        Set<Integer> values = new HashSet<>();
+        iterator.forEachRemaining(values::add);
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), values);
+        assertThrows(NoSuchElementException.class, iterator::next);
+    }
+
+    @Test
+    void constructorShouldRejectInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new LongKeyHeapPriorityQueue<Integer>(Integer::longValue, 0));
+    }
+
+    private static <E> List<E> drain(PrioritizedQueue<E> q) {
+        List<E> result = new ArrayList<>();
+        q.drainTo(result, Integer.MAX_VALUE);
+        return result;
+    }
+}
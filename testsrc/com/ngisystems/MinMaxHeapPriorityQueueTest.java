@@ -0,0 +1,157 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MinMaxHeapPriorityQueueTest {
+
+    @Test
+    void pollShouldReturnNullIfQueueEmpty() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        assertNull(q.pollMax(), "PollMax should return null if the queue is empty.");
+        assertNull(q.pollMin(), "PollMin should return null if the queue is empty.");
+        assertNull(q.peekMax(), "PeekMax should return null if the queue is empty.");
+        assertNull(q.peekMin(), "PeekMin should return null if the queue is empty.");
+    }
+
+    @Test
+    void singleElementShouldBeBothMaxAndMin() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        q.add(4);
+        assertEquals((Integer) 4, q.peekMax());
+        assertEquals((Integer) 4, q.peekMin());
+        assertEquals((Integer) 4, q.pollMin());
+        assertNull(q.pollMax());
+    }
+
+    @Test
+    void queueShouldReturnElementsFromBothEnds() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random();
+
+        for (int i = 0; i < 5000; i++) {
+            int operation = random.nextInt(4);
+            if (operation < 2 || expected.isEmpty()) {
+                int value = random.nextInt(1000);
+                q.add(value);
+                expected.merge(value, 1, Integer::sum);
+            } else {
+                Integer e = operation == 2 ? expected.lastKey() : expected.firstKey();
+                assertEquals(e, operation == 2 ? q.peekMax() : q.peekMin());
+                assertEquals(e, operation == 2 ? q.pollMax() : q.pollMin());
+                expected.computeIfPresent(e, (k, v) -> v == 1 ? null : v - 1);
+            }
+            assertEquals(expected.values().stream().mapToInt(Integer::intValue).sum(), q.size());
+        }
+    }
+
+    @Test
+    void queueShouldDrainInOrderFromEitherEnd() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        List<Integer> values = new ArrayList<>();
+        new Random()
+                .ints(500, 1, 1000)
+                .forEach(values::add);
+        values.forEach(q::add);
+        Collections.sort(values);
+
+        List<Integer> fromMin = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            fromMin.add(q.pollMin());
+        }
+        List<Integer> fromMax = new ArrayList<>();
+        while (q.peekMax() != null) {
+            fromMax.add(q.pollMax());
+        }
+        Collections.reverse(fromMax);
+
+        assertEquals(values.subList(0, 250), fromMin);
+        assertEquals(values.subList(250, 500), fromMax);
+    }
+
+    @Test
+    void updateShouldKeepBothEndsCorrect() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        List<Integer> values = new ArrayList<>();
+        Random random = new Random();
+        for (int i = 0; i < 300; i++) {
+            values.add(i * 2);
+            q.add(i * 2);
+        }
+
+        for (int i = 0; i < 300; i++) {
+            int index = random.nextInt(values.size());
+            int newValue = random.nextInt(1000) * 2 + 1;
+            q.update(values.get(index), newValue);
+            values.set(index, newValue);
+        }
+
+        Collections.sort(values);
+        for (int i = 0; i < 150; i++) {
+            assertEquals(values.get(i), q.pollMin());
+            assertEquals(values.get(values.size() - 1 - i), q.pollMax());
+        }
+        assertNull(q.poll());
+    }
+
+    @Test
+    void updateShouldThrowExceptionWhenElementNotFound() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        q.add(7);
+        q.add(2);
+
+        Executable updateOperation = () -> q.update(1, 3);
+
+        assertThrows(NoSuchElementException.class, updateOperation, "NoSuchElementException should be thrown" +
+                "if the element is not found");
+        assertEquals((Integer) 7, q.peekMax());
+        assertEquals((Integer) 2, q.peekMin());
+    }
+
+    @Test
+    void boundedQueueShouldEvictLowestElements() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        int capacity = 100;
+        List<Integer> values = new ArrayList<>();
+        new Random()
+                .ints(5000, 1, 100_000)
+                .forEach(v -> {
+                    values.add(v);
+                    q.add(v);
+                    if (q.size() > capacity) {
+                        q.pollMin();
+                    }
+                });
+
+        values.sort(Collections.reverseOrder());
+        List<Integer> retrieved = new ArrayList<>();
+        while (q.peek() != null) {
+            retrieved.add(q.poll());
+        }
+        assertEquals(values.subList(0, capacity), retrieved, "The bounded queue should keep the highest elements");
+    }
+
+    @Test
+    void iteratorShouldIterateAllElements() {
+        MinMaxHeapPriorityQueue<Integer> q = new MinMaxHeapPriorityQueue<>();
+        new Random()
+                .ints(10, 1, 1000)
+                .forEach(q::add);
+
+        Iterator<Integer> iterator = q.iterator();
+        int iteratedValues = 0;
+        while (iterator.hasNext()) {
+            iteratedValues++;
+            iterator.next();
+        }
+        assertEquals(10, iteratedValues, "Iterator should iterate all queue elements");
+
+        Executable nextOperation = iterator::next;
+        assertThrows(NoSuchElementException.class, nextOperation);
+    }
+}
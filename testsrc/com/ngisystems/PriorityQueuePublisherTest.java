@@ -0,0 +1,271 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriorityQueuePublisherTest {
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Integer> {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(Integer item) {
+            received.add(item);
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    void elementsShouldBeEmittedInPriorityOrderOnDemand() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        Arrays.asList(3, 1, 5, 2, 4).forEach(publisher::add);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.received.isEmpty(), "Nothing should be emitted without demand.");
+
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList(5, 4), subscriber.received);
+        assertEquals(3, q.size());
+
+        subscriber.subscription.request(10);
+        assertEquals(Arrays.asList(5, 4, 3, 2, 1), subscriber.received);
+
+        publisher.add(7);
+        assertEquals(Arrays.asList(5, 4, 3, 2, 1, 7), subscriber.received);
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    void addWithoutDemandShouldStayInQueue() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        publisher.add(1);
+        publisher.add(2);
+        publisher.add(3);
+
+        assertEquals(Collections.singletonList(1), subscriber.received);
+        assertEquals(2, q.size());
+    }
+
+    @Test
+    void signalShouldEmitElementsAddedToTheQueueDirectly() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        q.add(1);
+        q.add(2);
+        assertTrue(subscriber.received.isEmpty());
+
+        publisher.signal();
+        assertEquals(Arrays.asList(2, 1), subscriber.received);
+    }
+
+    @Test
+    void requestFromOnSubscribeShouldNotDeliverBeforeItReturns() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        Arrays.asList(1, 2, 3).forEach(publisher::add);
+
+        boolean[] subscribing = new boolean[1];
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscribing[0] = true;
+                super.onSubscribe(subscription);
+                subscription.request(2);
+                publisher.add(4);
+                subscribing[0] = false;
+            }
+
+            public void onNext(Integer item) {
+                assertFalse(subscribing[0], "onNext should not be called before onSubscribe returns");
+                super.onNext(item);
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        assertEquals(Arrays.asList(4, 3), subscriber.received);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void nonPositiveRequestShouldSignalError() {
+        PriorityQueuePublisher<Integer> publisher =
+                new PriorityQueuePublisher<>(new HeapPriorityQueue<Integer>(), Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(0, publisher.subscriberCount());
+    }
+
+    @Test
+    void cancelledSubscriberShouldNotReceiveElements() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(5);
+
+        subscriber.subscription.cancel();
+        publisher.add(1);
+
+        assertTrue(subscriber.received.isEmpty());
+        assertEquals(1, q.size());
+        assertEquals(0, publisher.subscriberCount());
+    }
+
+    @Test
+    void undeliveredElementsShouldBeRequeuedWhenCancelledDuringBatch() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        Arrays.asList(1, 2, 3, 4).forEach(publisher::add);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            public void onNext(Integer item) {
+                super.onNext(item);
+                subscription.cancel();
+            }
+        };
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(4);
+
+        assertEquals(Collections.singletonList(4), subscriber.received);
+        assertEquals(3, q.size());
+        assertEquals(Integer.valueOf(3), q.peek());
+    }
+
+    @Test
+    void throwingSubscriberShouldBeCancelledAndElementsRequeued() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        Arrays.asList(1, 2, 3).forEach(publisher::add);
+
+        RecordingSubscriber failing = new RecordingSubscriber() {
+            public void onNext(Integer item) {
+                throw new IllegalStateException("failed");
+            }
+        };
+        publisher.subscribe(failing);
+        failing.subscription.request(3);
+        assertEquals(2, q.size());
+        assertEquals(0, publisher.subscriberCount());
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(3);
+        assertEquals(Arrays.asList(2, 1), subscriber.received);
+    }
+
+    @Test
+    void closeShouldCompleteSubscribersOnceQueueIsEmpty() {
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<>();
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(q, Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        publisher.add(1);
+        publisher.add(2);
+
+        publisher.close();
+        assertFalse(subscriber.completed, "Queued elements should be delivered first.");
+        assertThrows(IllegalStateException.class, () -> publisher.add(3));
+
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList(2, 1), subscriber.received);
+        assertTrue(subscriber.completed);
+
+        RecordingSubscriber late = new RecordingSubscriber();
+        publisher.subscribe(late);
+        assertTrue(late.completed);
+    }
+
+    @Test
+    void elementAcceptedWhileClosingShouldBeDeliveredBeforeCompletion() throws InterruptedException {
+        List<PriorityQueuePublisher<Integer>> publisher = new ArrayList<>();
+        Thread[] closer = new Thread[1];
+        HeapPriorityQueue<Integer> q = new HeapPriorityQueue<Integer>() {
+            @Override
+            public void add(Integer e) {
+                //close concurrently, between the closed check of the publisher and the enqueue
+                closer[0] = new Thread(publisher.get(0)::close);
+                closer[0].start();
+                try {
+                    closer[0].join(100);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+                super.add(e);
+            }
+        };
+        publisher.add(new PriorityQueuePublisher<>(q, Runnable::run));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.get(0).subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        publisher.get(0).add(1);
+        closer[0].join();
+
+        assertEquals(Collections.singletonList(1), subscriber.received);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    void subscribersShouldShareElementsAcrossThreads() throws InterruptedException {
+        int count = 10_000;
+        PriorityQueuePublisher<Integer> publisher = new PriorityQueuePublisher<>(new HeapPriorityQueue<Integer>());
+        CountDownLatch done = new CountDownLatch(count);
+        Set<Integer> delivered = Collections.synchronizedSet(new HashSet<>());
+        for (int s = 0; s < 2; s++) {
+            publisher.subscribe(new RecordingSubscriber() {
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                public void onNext(Integer item) {
+                    delivered.add(item);
+                    done.countDown();
+                }
+            });
+        }
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                publisher.add(i);
+            }
+        });
+        producer.start();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS), "All the elements should be delivered.");
+        producer.join();
+        assertEquals(count, delivered.size(), "Every element should be delivered exactly once.");
+    }
+}
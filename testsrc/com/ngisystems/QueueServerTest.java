@@ -0,0 +1,223 @@
+package com.ngisystems;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueueServerTest {
+
+    private static final ElementCodec<TestPrioritizable> CODEC = new ElementCodec<TestPrioritizable>() {
+        @Override
+        public void write(TestPrioritizable element, DataOutput out) throws IOException {
+            out.writeUTF(element.getValue());
+            out.writeInt(element.getPriority());
+        }
+
+        @Override
+        public TestPrioritizable read(DataInput in) throws IOException {
+            return new TestPrioritizable(in.readUTF(), in.readInt());
+        }
+    };
+
+    private QueueServer<TestPrioritizable> server;
+    private QueueClient<TestPrioritizable> client;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new QueueServer<>(new BucketsPriorityQueue<>(10), CODEC,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = new QueueClient<>(server.getAddress(), CODEC);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void pollShouldReturnNullIfQueueEmpty() throws IOException {
+        assertNull(client.poll(), "Poll should return null if the queue is empty.");
+        assertNull(client.peek(), "Peek should return null if the queue is empty.");
+        assertTrue(client.pollBatch(10).isEmpty());
+    }
+
+    @Test
+    void operationsShouldBeAppliedToTheSharedQueue() throws IOException {
+        TestPrioritizable t7 = new TestPrioritizable("g", 7);
+        TestPrioritizable t2 = new TestPrioritizable("b", 2);
+        client.add(t7);
+        client.add(t2);
+        assertEquals(2, client.size());
+        assertEquals(t7, client.peek());
+
+        client.update(t2, 9);
+        TestPrioritizable polled = client.poll();
+        assertEquals(t2, polled);
+        assertEquals(9, polled.getPriority());
+        assertEquals(t7, client.poll());
+        assertNull(client.poll());
+    }
+
+    @Test
+    void remoteErrorsShouldBeThrownAsLocalExceptions() throws IOException {
+        client.add(new TestPrioritizable("a", 1));
+
+        Executable insertLarger = () -> client.add(new TestPrioritizable("b", 11));
+        Executable updateMissing = () -> client.update(new TestPrioritizable("c", 3), 4);
+
+        assertThrows(IllegalStateException.class, insertLarger);
+        assertThrows(NoSuchElementException.class, updateMissing);
+        assertEquals(1, client.size(), "The connection should remain usable after an error");
+    }
+
+    @Test
+    void pipelinedAddsAndBatchPollsShouldKeepPriorityOrder() throws IOException {
+        List<TestPrioritizable> values = new ArrayList<>();
+        Random random = new Random();
+        for (int i = 0; i < 10_000; i++) {
+            values.add(new TestPrioritizable("v" + i, random.nextInt(10) + 1));
+        }
+        client.addAll(values);
+        assertEquals(values.size(), client.size());
+
+        List<Integer> priorities = new ArrayList<>();
+        List<TestPrioritizable> batch;
+        while (!(batch = client.pollBatch(256)).isEmpty()) {
+            batch.forEach(e -> priorities.add(e.getPriority()));
+        }
+
+        List<Integer> sorted = new ArrayList<>(priorities);
+        sorted.sort(Collections.reverseOrder());
+        assertEquals(values.size(), priorities.size());
+        assertEquals(sorted, priorities);
+    }
+
+    @Test
+    void largeAddAllShouldNotStallOnTheOutputLimit() throws IOException {
+        //10MB of responses, far more than the output limit plus the socket buffers
+        int count = 2_000_000;
+        List<TestPrioritizable> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(new TestPrioritizable("v", i % 10 + 1));
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> client.addAll(values));
+        assertEquals(count, client.size());
+    }
+
+    @Test
+    void requestsHeldBackForSlowReaderShouldBeAnsweredOnceItReads() throws Exception {
+        char[] chars = new char[8 * 1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        client.add(new TestPrioritizable(value, 5));
+
+        int requests = 5000;
+        try (SocketChannel raw = SocketChannel.open(server.getAddress())) {
+            Thread writer = new Thread(() -> {
+                ByteBuffer peek = ByteBuffer.allocate(5 * requests);
+                for (int i = 0; i < requests; i++) {
+                    peek.putInt(1).put(QueueProtocol.PEEK);
+                }
+                peek.flip();
+                try {
+                    while (peek.hasRemaining()) {
+                        raw.write(peek);
+                    }
+                } catch (IOException ignored) {
+                    //reported by the reads below
+                }
+            });
+            writer.start();
+            //let the responses pile up past the output limit before reading any
+            Thread.sleep(200);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raw)));
+            for (int i = 0; i < requests; i++) {
+                in.readInt();
+                assertEquals(QueueProtocol.OK, in.readByte());
+                assertEquals(value, CODEC.read(in).getValue());
+            }
+            writer.join();
+        }
+        assertEquals(1, client.size(), "The server should keep serving other connections");
+    }
+
+    @Test
+    void failedAcceptShouldNotCloseTheServer() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            try (SocketChannel reset = SocketChannel.open(server.getAddress())) {
+                reset.setOption(StandardSocketOptions.SO_LINGER, 0);
+            }
+        }
+
+        try (QueueClient<TestPrioritizable> other = new QueueClient<>(server.getAddress(), CODEC)) {
+            other.add(new TestPrioritizable("a", 3));
+            assertEquals("a", client.poll().getValue());
+        }
+    }
+
+    @Test
+    void concurrentClientsShouldShareTheQueueWithBoundedLatency() throws Exception {
+        int clients = 4;
+        int perClient = 2000;
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        Set<String> polled = Collections.synchronizedSet(new HashSet<>());
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int c = 0; c < clients; c++) {
+            int id = c;
+            threads.add(new Thread(() -> {
+                try (QueueClient<TestPrioritizable> own = new QueueClient<>(server.getAddress(), CODEC)) {
+                    for (int i = 0; i < perClient; i++) {
+                        long start = System.nanoTime();
+                        own.add(new TestPrioritizable(id + "-" + i, i % 10 + 1));
+                        TestPrioritizable e = own.poll();
+                        latencies.add(System.nanoTime() - start);
+                        if (e != null) {
+                            polled.add(e.getValue());
+                        }
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        client.pollBatch(clients * perClient).forEach(e -> polled.add(e.getValue()));
+
+        assertTrue(failures.isEmpty(), () -> "Client failed: " + failures);
+        assertEquals(clients * perClient, polled.size(), "Every element should be polled exactly once");
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long p99 = sorted.get(sorted.size() * 99 / 100);
+        double throughput = 2.0 * clients * perClient / (elapsed / 1e9);
+        assertTrue(p99 < 1_000_000_000L, "p99 add+poll round trip was " + p99 / 1000 + "us");
+        assertTrue(throughput > 100, "Throughput was " + (long) throughput + " operations per second");
+    }
+}
@@ -0,0 +1,176 @@
+package com.ngisystems;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compares loading a queue from a snapshot with rebuilding it by replaying {@code add} and prints the time of each.
+ *
+ * <p>Both paths decode every element with the same codec from a file: the replay reads the elements from a log
+ * written in the order they were added and adds them one by one, the snapshot is read from a plain
+ * {@link FileInputStream} and through a memory mapping. The heap holds {@code Integer}s and the buckets hold jobs
+ * with an id and one of 1000 priorities.
+ *
+ * <p>Usage: {@code SnapshotBenchmark [elements] [rounds]}, 2,000,000 elements and 3 rounds by default.
+ * The first round includes JIT warm up.
+ */
+class SnapshotBenchmark {
+
+    private static final int PRIORITIES = 1000;
+
+    private static final ElementCodec<Integer> INT_CODEC = new ElementCodec<Integer>() {
+        @Override
+        public void write(Integer element, DataOutput out) throws IOException {
+            out.writeInt(element);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    private static final ElementCodec<Job> JOB_CODEC = new ElementCodec<Job>() {
+        @Override
+        public void write(Job element, DataOutput out) throws IOException {
+            out.writeLong(element.id);
+            out.writeInt(element.priority);
+        }
+
+        @Override
+        public Job read(DataInput in) throws IOException {
+            return new Job(in.readLong(), in.readInt());
+        }
+    };
+
+    private static class Job implements Prioritizable {
+        final long id;
+        private int priority;
+
+        Job(long id, int priority) {
+            this.id = id;
+            this.priority = priority;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void setPriority(Integer priority) {
+            this.priority = priority;
+        }
+    }
+
+    private interface Load<Q> {
+        Q load(Path file) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int elements = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Random random = new Random(1);
+        List<Integer> ints = new ArrayList<>(elements);
+        List<Job> jobs = new ArrayList<>(elements);
+        for (int i = 0; i < elements; i++) {
+            ints.add(random.nextInt());
+            jobs.add(new Job(i, random.nextInt(PRIORITIES) + 1));
+        }
+        HeapPriorityQueue<Integer> heap = new HeapPriorityQueue<>();
+        ints.forEach(heap::add);
+        BucketsPriorityQueue<Job> buckets = new BucketsPriorityQueue<>(PRIORITIES);
+        jobs.forEach(buckets::add);
+
+        Path intLog = writeLog(ints, INT_CODEC);
+        Path jobLog = writeLog(jobs, JOB_CODEC);
+        Path heapSnapshot = Files.createTempFile("heap", ".snapshot");
+        Path bucketsSnapshot = Files.createTempFile("buckets", ".snapshot");
+        try {
+            try (OutputStream out = Files.newOutputStream(heapSnapshot)) {
+                heap.writeSnapshot(out, INT_CODEC);
+            }
+            try (OutputStream out = Files.newOutputStream(bucketsSnapshot)) {
+                buckets.writeSnapshot(out, JOB_CODEC);
+            }
+            System.out.printf("%d elements, heap snapshot %d KB, buckets snapshot %d KB%n", elements,
+                    Files.size(heapSnapshot) / 1024, Files.size(bucketsSnapshot) / 1024);
+
+            for (int round = 1; round <= rounds; round++) {
+                System.out.println("round " + round);
+                report("heap",
+                        time(intLog, file -> replay(file, elements, INT_CODEC, new HeapPriorityQueue<>())),
+                        time(heapSnapshot, file -> {
+                            try (InputStream in = new FileInputStream(file.toFile())) {
+                                return HeapPriorityQueue.readSnapshot(in, INT_CODEC);
+                            }
+                        }),
+                        time(heapSnapshot, file -> {
+                            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                                return HeapPriorityQueue.readSnapshot(channel, INT_CODEC);
+                            }
+                        }));
+                report("buckets",
+                        time(jobLog, file -> replay(file, elements, JOB_CODEC,
+                                new BucketsPriorityQueue<>(PRIORITIES))),
+                        time(bucketsSnapshot, file -> {
+                            try (InputStream in = new FileInputStream(file.toFile())) {
+                                return BucketsPriorityQueue.readSnapshot(in, JOB_CODEC);
+                            }
+                        }),
+                        time(bucketsSnapshot, file -> {
+                            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                                return BucketsPriorityQueue.readSnapshot(channel, JOB_CODEC);
+                            }
+                        }));
+            }
+        } finally {
+            Files.delete(intLog);
+            Files.delete(jobLog);
+            Files.delete(heapSnapshot);
+            Files.delete(bucketsSnapshot);
+        }
+    }
+
+    private static void report(String queue, long replay, long stream, long mapped) {
+        System.out.printf("  %-8s replay add=%5dms snapshot stream=%5dms mapped=%5dms (%.1fx faster)%n",
+                queue, replay, stream, mapped, (double) replay / Math.max(1, Math.min(stream, mapped)));
+    }
+
+    private static <Q extends PrioritizedQueue<?>> long time(Path file, Load<Q> load) throws IOException {
+        //collect the queue of the previous run outside the measurement
+        System.gc();
+        long start = System.nanoTime();
+        Q q = load.load(file);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        if (q.peek() == null) {
+            throw new IllegalStateException("Nothing was loaded");
+        }
+        return elapsed;
+    }
+
+    private static <E, Q extends PrioritizedQueue<E>> Q replay(Path log, int elements, ElementCodec<E> codec, Q q)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            for (int i = 0; i < elements; i++) {
+                q.add(codec.read(in));
+            }
+        }
+        return q;
+    }
+
+    private static <E> Path writeLog(List<E> elements, ElementCodec<E> codec) throws IOException {
+        Path log = Files.createTempFile("adds", ".log");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(log)))) {
+            for (E element : elements) {
+                codec.write(element, out);
+            }
+        }
+        return log;
+    }
+}
@@ -11,6 +11,10 @@ class TestPrioritizable implements Prioritizable, Comparable<TestPrioritizable>{
         this.priority = priority;
     }
 
+    String getValue() {
+        return value;
+    }
+
     @Override
     public int getPriority() {
         return priority;
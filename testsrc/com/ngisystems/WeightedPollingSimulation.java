@@ -0,0 +1,106 @@
+package com.ngisystems;
+
+import java.util.*;
+
+/**
+ * Simulates a saturated {@link BucketsPriorityQueue} and prints the per-priority wait percentiles under strict
+ * and weighted round-robin polling, see {@link BucketsPriorityQueue#setWeights(int[])}.
+ *
+ * <p>Every tick each priority receives a job with its arrival probability and one job is polled. The arrival
+ * probabilities add up to 0.97, so the queue is busy but stable and the lower priorities starve under strict order.
+ * The wait of a job is the number of ticks between its arrival and its poll.
+ *
+ * <p>Weighted polling only bounds the wait of a priority whose share of the polls, its weight divided by the sum of
+ * the weights, covers its arrival rate. The simulation runs weights that cover every priority and weights that
+ * do not cover priority 3.
+ *
+ * <p>Usage: {@code WeightedPollingSimulation [ticks]}, 2,000,000 ticks by default.
+ */
+class WeightedPollingSimulation {
+
+    private static final double[] ARRIVAL_RATES = {0.05, 0.1, 0.3, 0.52};
+    /**
+     * Weights proportional to the arrival rates, every priority's share of the polls under saturation is slightly
+     * above its arrival rate: 6/101, 11/101, 31/101 and 53/101.
+     */
+    private static final int[] WEIGHTS = {6, 11, 31, 53};
+    /**
+     * Doubling weights give priority 3 a share of 4/15, below its arrival rate of 0.3, so its backlog grows
+     * whenever the other priorities are busy.
+     */
+    private static final int[] UNDERSIZED_WEIGHTS = {1, 2, 4, 8};
+    private static final int WARM_UP_TICKS = 100_000;
+
+    private static class Job implements Prioritizable {
+        private int priority;
+        final long arrival;
+
+        Job(int priority, long arrival) {
+            this.priority = priority;
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void setPriority(Integer priority) {
+            this.priority = priority;
+        }
+    }
+
+    public static void main(String[] args) {
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        System.out.println("strict");
+        report(simulate(null, ticks));
+        System.out.println("weighted " + Arrays.toString(WEIGHTS));
+        report(simulate(WEIGHTS, ticks));
+        System.out.println("weighted " + Arrays.toString(UNDERSIZED_WEIGHTS) + ", too low for p3");
+        report(simulate(UNDERSIZED_WEIGHTS, ticks));
+    }
+
+    /**
+     * Returns the waits of the polled jobs, indexed by priority - 1.
+     */
+    private static List<List<Long>> simulate(int[] weights, long ticks) {
+        BucketsPriorityQueue<Job> q = new BucketsPriorityQueue<>(ARRIVAL_RATES.length);
+        q.setWeights(weights);
+        Random random = new Random(7);
+        List<List<Long>> waits = new ArrayList<>();
+        for (int p = 0; p < ARRIVAL_RATES.length; p++) {
+            waits.add(new ArrayList<>());
+        }
+
+        for (long tick = 0; tick < ticks; tick++) {
+            for (int p = 0; p < ARRIVAL_RATES.length; p++) {
+                if (random.nextDouble() < ARRIVAL_RATES[p]) {
+                    q.add(new Job(p + 1, tick));
+                }
+            }
+            Job job = q.poll();
+            if (job != null && tick >= WARM_UP_TICKS) {
+                waits.get(job.getPriority() - 1).add(tick - job.arrival);
+            }
+        }
+        return waits;
+    }
+
+    private static void report(List<List<Long>> waits) {
+        for (int p = 0; p < waits.size(); p++) {
+            List<Long> w = waits.get(p);
+            if (w.isEmpty()) {
+                System.out.printf("  p%d: no jobs polled%n", p + 1);
+                continue;
+            }
+            Collections.sort(w);
+            System.out.printf("  p%d: polled=%d p50=%d p99=%d p99.9=%d max=%d%n", p + 1, w.size(),
+                    percentile(w, 0.5), percentile(w, 0.99), percentile(w, 0.999), w.get(w.size() - 1));
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double fraction) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * fraction)));
+    }
+}